@@ -0,0 +1,609 @@
+package com.example.demoapp.upload;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 上传吞吐量基准测试工具（只在 debug 构建中）
+ * 在进程内启动一个模拟 /api/upload/register|save|merge 的本地服务器（可注入延迟和丢包），
+ * 用真实的 FileUploadManager 上传临时文件，扫描文件大小、分片大小、并发数、延迟和丢包率，
+ * 输出 MB/s、分片延迟 p50/p99、峰值堆内存，以及每 MB 的内存分配量和 CPU 时间
+ * （进程级统计，包含本地服务器自身的开销）。需要在后台线程调用
+ * 每次运行使用独立的调度器（并发窗口、重试预算、熔断器）、吞吐量估计、指标、进度总线、限速器和连接池，
+ * 不出现在应用的上传指标中，也不改变应用中上传的状态
+ * 通过 UploadBenchmarkActivity 在设备上运行（adb 启动命令见该类）
+ */
+public class UploadBenchmark {
+    private static final String TAG = "UploadBenchmark";
+    private static final long RUN_TIMEOUT_MINUTES = 10;
+    private static final long HEAP_SAMPLE_MILLIS = 20;
+    // 上传页面入口的续传会话和上传历史写入这个独立的数据库，测试结束后删除
+    private static final String BENCHMARK_DATABASE = "upload_benchmark.db";
+
+    /**
+     * 上传从哪里发起
+     */
+    public enum EntryPoint {
+        /** 直接调用上传引擎（不保存续传会话，NORMAL 优先级），用于参数扫描 */
+        ENGINE,
+        /** 与 UploadFragment 相同：先写上传历史，按页面保存续传会话，NORMAL 优先级 */
+        UPLOAD_PAGE,
+        /** 与 ChatFragment 相同：先经过 MediaDownscaler.prepare，不保存续传会话，INTERACTIVE 优先级，结束后 release */
+        CHAT
+    }
+
+    /**
+     * 一组测试参数
+     */
+    public static class Scenario {
+        public final long fileSize;
+        public final int chunkSize;
+        public final int concurrency;
+        public final long latencyMillis;
+        public final double lossRate;
+        public final EntryPoint entryPoint;
+
+        public Scenario(long fileSize, int chunkSize, int concurrency, long latencyMillis, double lossRate) {
+            this(fileSize, chunkSize, concurrency, latencyMillis, lossRate, EntryPoint.ENGINE);
+        }
+
+        public Scenario(long fileSize, int chunkSize, int concurrency, long latencyMillis, double lossRate,
+                        EntryPoint entryPoint) {
+            this.fileSize = fileSize;
+            this.chunkSize = chunkSize;
+            this.concurrency = concurrency;
+            this.latencyMillis = latencyMillis;
+            this.lossRate = lossRate;
+            this.entryPoint = entryPoint;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "size=%dMB chunk=%dKB conc=%d latency=%dms loss=%.0f%% %s",
+                    fileSize / (1024 * 1024), chunkSize / 1024, concurrency, latencyMillis, lossRate * 100, entryPoint);
+        }
+    }
+
+    /**
+     * 一次测试的结果
+     */
+    public static class Result {
+        public final Scenario scenario;
+        public boolean success;
+        public String error = "";
+        public long elapsedMillis;
+        // 从发起到开始上传的准备时间（聊天入口为 MediaDownscaler.prepare），包含在 elapsedMillis 中
+        public long prepareMillis;
+        public double mbPerSecond;
+        public long p50ChunkMillis;
+        public long p99ChunkMillis;
+        public long peakHeapBytes;
+        public int droppedRequests;
+        public long allocatedBytesPerMb;
+        public long gcCount;
+        public long cpuMillisPerMb;
+        // 文件区间请求体额外的一遍读取（计算校验和）单独测得的耗时，-1 表示不适用
+        public long crcPassMillisPerMb = -1;
+
+        Result(Scenario scenario) {
+            this.scenario = scenario;
+        }
+
+        @Override
+        public String toString() {
+            if (!success) {
+                return scenario + " | 失败: " + error;
+            }
+            String crcPass = crcPassMillisPerMb >= 0 ? " crcPass=" + crcPassMillisPerMb + "ms/MB" : "";
+            return String.format(Locale.ROOT,
+                    "%s | %.2f MB/s | prepare=%dms p50=%dms p99=%dms | peakHeap=%.1fMB | alloc=%dKB/MB gc=%d cpu=%dms/MB%s | dropped=%d",
+                    scenario, mbPerSecond, prepareMillis, p50ChunkMillis, p99ChunkMillis, peakHeapBytes / 1024.0 / 1024.0,
+                    allocatedBytesPerMb / 1024, gcCount, cpuMillisPerMb, crcPass, droppedRequests);
+        }
+    }
+
+    /**
+     * 默认扫描：以 16MB / 1MB 分片 / 并发 8 / 20ms / 无丢包为基线，每次只改变一个参数
+     */
+    public static List<Scenario> defaultSweep() {
+        long mb = 1024 * 1024;
+        int kb = 1024;
+        List<Scenario> scenarios = new ArrayList<>();
+        for (long size : new long[]{mb, 16 * mb, 64 * mb}) {
+            scenarios.add(new Scenario(size, 1024 * kb, 8, 20, 0));
+        }
+        for (int chunk : new int[]{128 * kb, 256 * kb, 4096 * kb}) {
+            scenarios.add(new Scenario(16 * mb, chunk, 8, 20, 0));
+        }
+        for (int concurrency : new int[]{1, 2, 4, 16}) {
+            scenarios.add(new Scenario(16 * mb, 1024 * kb, concurrency, 20, 0));
+        }
+        for (long latency : new long[]{0, 100, 300}) {
+            scenarios.add(new Scenario(16 * mb, 1024 * kb, 8, latency, 0));
+        }
+        for (double loss : new double[]{0.01, 0.05}) {
+            scenarios.add(new Scenario(16 * mb, 1024 * kb, 8, 20, loss));
+        }
+        return scenarios;
+    }
+
+    public static List<Result> runSweep(Context context) throws IOException {
+        return runSweep(context, defaultSweep());
+    }
+
+    /**
+     * 同一组参数下分别关闭/开启文件区间请求体，对比内存分配和 CPU 开销
+     * 文件区间请求体发送前要单独读一遍分片计算校验和，这一遍的耗时另外测量（crcPass），它已包含在 cpu 中
+     */
+    public static List<Result> runZeroCopyComparison(Context context) throws IOException {
+        long mb = 1024 * 1024;
+        List<Scenario> baseline = Collections.singletonList(new Scenario(64 * mb, 1024 * 1024, 8, 0, 0));
+        List<Result> results = new ArrayList<>();
+        Log.d(TAG, "---------- 分片读入 byte[] ----------");
+        results.addAll(runSweep(context, baseline, false));
+        Log.d(TAG, "---------- 文件区间请求体 ----------");
+        results.addAll(runSweep(context, baseline, true));
+        return results;
+    }
+
+    /**
+     * 按聊天附件和上传页面各自的调用路径上传同一组文件，确认两者吞吐量一致
+     * 测试文件是 file:// Uri，没有内容类型，MediaDownscaler.prepare 按非图片原样返回（与发送原图、非图片附件相同）
+     */
+    public static List<Result> runEntryPointParity(Context context) throws IOException {
+        long mb = 1024 * 1024;
+        List<Scenario> scenarios = new ArrayList<>();
+        for (long size : new long[]{mb, 16 * mb}) {
+            scenarios.add(new Scenario(size, 1024 * 1024, 8, 20, 0, EntryPoint.CHAT));
+            scenarios.add(new Scenario(size, 1024 * 1024, 8, 20, 0, EntryPoint.UPLOAD_PAGE));
+        }
+        return runSweep(context, scenarios);
+    }
+
+    public static List<Result> runSweep(Context context, List<Scenario> scenarios) throws IOException {
+        return runSweep(context, scenarios, true);
+    }
+
+    /**
+     * 依次运行各组参数
+     */
+    private static List<Result> runSweep(Context context, List<Scenario> scenarios, boolean zeroCopy)
+            throws IOException {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("基准测试会阻塞等待上传回调，不能在主线程运行");
+        }
+        List<Result> results = new ArrayList<>();
+        UploadTransport transport = new UploadTransport();
+        // 与应用中一样，进度和已确认分片批量写入数据库，但写入独立的数据库文件，不出现在上传历史中
+        UploadDatabase store = new UploadDatabase(context.getApplicationContext(), BENCHMARK_DATABASE);
+        // 进度总线带一个常驻线程，每组扫描共用一个
+        UploadProgressBus progressBus = new UploadProgressBus();
+        progressBus.attachStore(store);
+        try (LocalUploadServer server = new LocalUploadServer()) {
+            Log.d(TAG, "========== 上传基准测试 ==========");
+            Log.d(TAG, "本地服务器: " + server.getBaseUrl());
+            for (Scenario scenario : scenarios) {
+                Result result = run(context, scenario, server, transport, progressBus, store, zeroCopy);
+                Log.d(TAG, result.toString());
+                results.add(result);
+            }
+        } finally {
+            transport.evictAll();
+            progressBus.attachStore(null);
+            store.close();
+            context.deleteDatabase(BENCHMARK_DATABASE);
+        }
+        return results;
+    }
+
+    private static Result run(Context context, Scenario scenario, LocalUploadServer server,
+                              UploadTransport transport, UploadProgressBus progressBus, UploadDatabase store,
+                              boolean zeroCopy)
+            throws IOException {
+        Result result = new Result(scenario);
+        server.configure(scenario.latencyMillis, scenario.lossRate);
+
+        // 每次运行从相同的初始状态开始：上一次的丢包不会留下打开的熔断器或耗尽的重试预算
+        UploadScheduler scheduler = new UploadScheduler();
+        scheduler.getWindow().setLimit(scenario.concurrency);
+        scheduler.getWindow().reset();
+        ThroughputEstimator estimator = new ThroughputEstimator();
+        estimator.setFixedChunkSize(scenario.chunkSize);
+
+        File file = createTestFile(context, scenario.fileSize);
+        String origin = scenario.entryPoint == EntryPoint.UPLOAD_PAGE ? FileUploadManager.ORIGIN_UPLOAD_PAGE : null;
+        FileUploadManager manager = new FileUploadManager(origin, scheduler, estimator, transport,
+                new UploadMetrics(), progressBus, new BandwidthLimiter(), store, server.getBaseUrl(), zeroCopy);
+        HeapSampler heapSampler = new HeapSampler();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<String> error = new AtomicReference<>();
+        AtomicReference<Uri> uploadUri = new AtomicReference<>();
+        AtomicLong uploadStartTime = new AtomicLong();
+        try {
+            Runtime.getRuntime().gc();
+            heapSampler.start();
+            long allocatedBefore = runtimeStat("art.gc.bytes-allocated");
+            long gcBefore = runtimeStat("art.gc.gc-count");
+            long cpuBefore = Process.getElapsedCpuTime();
+            long startTime = System.currentTimeMillis();
+            start(context, scenario.entryPoint, manager, store, file, uploadUri, uploadStartTime, done, error);
+            if (!done.await(RUN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                error.set("超时");
+            }
+            result.elapsedMillis = System.currentTimeMillis() - startTime;
+            result.prepareMillis = uploadStartTime.get() > 0 ? uploadStartTime.get() - startTime : 0;
+            double megabytes = Math.max(scenario.fileSize / 1024.0 / 1024.0, 1.0 / 1024);
+            result.allocatedBytesPerMb = (long) ((runtimeStat("art.gc.bytes-allocated") - allocatedBefore) / megabytes);
+            result.gcCount = runtimeStat("art.gc.gc-count") - gcBefore;
+            result.cpuMillisPerMb = (long) ((Process.getElapsedCpuTime() - cpuBefore) / megabytes);
+            if (zeroCopy && error.get() == null) {
+                result.crcPassMillisPerMb = (long) (measureCrcPassMillis(file, scenario.chunkSize) / megabytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error.set("被中断");
+        } finally {
+            heapSampler.stop();
+            manager.shutdown();
+            scheduler.shutdown();
+            if (scenario.entryPoint == EntryPoint.CHAT && uploadUri.get() != null) {
+                MediaDownscaler.getInstance().release(context, uploadUri.get());
+            }
+            file.delete();
+        }
+
+        result.success = error.get() == null;
+        result.error = error.get() != null ? error.get() : "";
+        result.mbPerSecond = scenario.fileSize / 1024.0 / 1024.0 / Math.max(result.elapsedMillis, 1) * 1000.0;
+        List<Long> latencies = server.takeChunkLatencies();
+        result.p50ChunkMillis = percentile(latencies, 0.50);
+        result.p99ChunkMillis = percentile(latencies, 0.99);
+        result.peakHeapBytes = heapSampler.getPeakBytes();
+        result.droppedRequests = server.takeDroppedCount();
+        return result;
+    }
+
+    /**
+     * 按入口各自的调用路径发起上传（与 ChatFragment / UploadFragment 一致），结束时 countDown
+     */
+    private static void start(Context context, EntryPoint entryPoint, FileUploadManager manager, UploadDatabase store,
+                              File file, AtomicReference<Uri> uploadUri, AtomicLong uploadStartTime,
+                              CountDownLatch done, AtomicReference<String> error) {
+        String fileId = "bench-" + UUID.randomUUID();
+        UploadRecord record = new UploadRecord(fileId, file.getName(), file.length(), 0, "",
+                System.currentTimeMillis());
+        FileUploadManager.UploadCallback callback = new FileUploadManager.UploadCallback() {
+            @Override
+            public void onProgress(int progress) {
+            }
+
+            @Override
+            public void onSuccess(String url, String fileName) {
+                if (entryPoint == EntryPoint.UPLOAD_PAGE) {
+                    record.setProgress(100);
+                    record.setUrl(url);
+                    record.setName(fileName);
+                    store.insertOrUpdate(record);
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                error.set(message);
+                done.countDown();
+            }
+        };
+        Uri source = Uri.fromFile(file);
+        switch (entryPoint) {
+            case CHAT:
+                // 聊天页面在主线程调用 prepare，回调中用不保存续传会话的管理器以 INTERACTIVE 上传
+                new Handler(Looper.getMainLooper()).post(() -> MediaDownscaler.getInstance().prepare(context, source,
+                        false, (prepared, downscaled) -> {
+                    uploadUri.set(prepared);
+                    uploadStartTime.set(System.currentTimeMillis());
+                    manager.uploadFile(context, prepared, fileId, UploadScheduler.Priority.INTERACTIVE, callback);
+                }));
+                break;
+            case UPLOAD_PAGE:
+                store.insertOrUpdate(record);
+                uploadStartTime.set(System.currentTimeMillis());
+                manager.uploadFile(context, source, fileId, UploadScheduler.Priority.NORMAL, callback);
+                break;
+            default:
+                uploadStartTime.set(System.currentTimeMillis());
+                manager.uploadFile(context, source, fileId, UploadScheduler.Priority.NORMAL, callback);
+                break;
+        }
+    }
+
+    /**
+     * 按分片计算一遍整个文件的校验和（与上传时相同的读取方式，文件刚上传过，和实际一样命中页缓存）
+     */
+    private static long measureCrcPassMillis(File file, int chunkSize) throws IOException {
+        long startNanos = System.nanoTime();
+        try (ChunkSource source = ChunkSource.open(file)) {
+            long size = source.size();
+            for (long offset = 0; offset < size; offset += chunkSize) {
+                Crc32c.of(source, offset, Math.min(chunkSize, size - offset));
+            }
+        }
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * 随机内容（不可压缩，也不会命中秒传）
+     */
+    private static File createTestFile(Context context, long size) throws IOException {
+        File dir = new File(context.getCacheDir(), "benchmark");
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        File file = new File(dir, "bench_" + size + "_" + System.nanoTime() + ".bin");
+        Random random = new Random();
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = new FileOutputStream(file)) {
+            long remaining = size;
+            while (remaining > 0) {
+                random.nextBytes(buffer);
+                int n = (int) Math.min(buffer.length, remaining);
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+        return file;
+    }
+
+    private static long runtimeStat(String name) {
+        String value = Debug.getRuntimeStat(name);
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long percentile(List<Long> values, double p) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(values);
+        int index = (int) Math.ceil(p * values.size()) - 1;
+        return values.get(Math.max(0, Math.min(values.size() - 1, index)));
+    }
+
+    /**
+     * 定时采样 Java 堆使用量，记录峰值
+     */
+    private static class HeapSampler {
+        private final AtomicLong peakBytes = new AtomicLong();
+        private volatile boolean running;
+        private Thread thread;
+
+        void start() {
+            running = true;
+            thread = new Thread(() -> {
+                Runtime runtime = Runtime.getRuntime();
+                while (running) {
+                    long used = runtime.totalMemory() - runtime.freeMemory();
+                    peakBytes.accumulateAndGet(used, Math::max);
+                    try {
+                        Thread.sleep(HEAP_SAMPLE_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "benchmark-heap-sampler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() {
+            running = false;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        long getPeakBytes() {
+            return peakBytes.get();
+        }
+    }
+
+    /**
+     * 本地模拟上传服务器：HTTP/1.1 keep-alive，响应格式与线上服务器一致
+     * 每个请求先等待注入的延迟；分片请求按丢包率直接断开连接（客户端看到连接重置）
+     */
+    static class LocalUploadServer implements Closeable {
+        private final ServerSocket serverSocket;
+        private final ExecutorService connectionExecutor;
+        private final List<Long> chunkLatencies = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger droppedCount = new AtomicInteger();
+        private volatile long latencyMillis = 0;
+        private volatile double lossRate = 0;
+
+        LocalUploadServer() throws IOException {
+            serverSocket = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+            AtomicInteger index = new AtomicInteger();
+            connectionExecutor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "benchmark-server-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            connectionExecutor.execute(this::acceptLoop);
+        }
+
+        String getBaseUrl() {
+            return "http://127.0.0.1:" + serverSocket.getLocalPort();
+        }
+
+        void configure(long latencyMillis, double lossRate) {
+            this.latencyMillis = latencyMillis;
+            this.lossRate = lossRate;
+            chunkLatencies.clear();
+            droppedCount.set(0);
+        }
+
+        List<Long> takeChunkLatencies() {
+            synchronized (chunkLatencies) {
+                List<Long> copy = new ArrayList<>(chunkLatencies);
+                chunkLatencies.clear();
+                return copy;
+            }
+        }
+
+        int takeDroppedCount() {
+            return droppedCount.getAndSet(0);
+        }
+
+        private void acceptLoop() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connectionExecutor.execute(() -> handleConnection(socket));
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        Log.e(TAG, "接受连接错误", e);
+                    }
+                }
+            }
+        }
+
+        private void handleConnection(Socket socket) {
+            try (Socket s = socket) {
+                InputStream in = new BufferedInputStream(s.getInputStream());
+                OutputStream out = s.getOutputStream();
+                // 每个连接复用一个缓冲区，避免服务器自身的分配干扰统计
+                byte[] skipBuffer = new byte[64 * 1024];
+                while (true) {
+                    String requestLine = readLine(in);
+                    if (requestLine == null || requestLine.isEmpty()) {
+                        return;
+                    }
+                    long startNanos = System.nanoTime();
+                    String[] parts = requestLine.split(" ");
+                    String path = parts.length > 1 ? parts[1] : "";
+
+                    long contentLength = 0;
+                    String fileId = "";
+                    String line;
+                    while ((line = readLine(in)) != null && !line.isEmpty()) {
+                        int colon = line.indexOf(':');
+                        if (colon <= 0) {
+                            continue;
+                        }
+                        String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                        String value = line.substring(colon + 1).trim();
+                        if (name.equals("content-length")) {
+                            contentLength = Long.parseLong(value);
+                        } else if (name.equals("x-file-id")) {
+                            fileId = value;
+                        }
+                    }
+
+                    boolean isChunk = path.startsWith("/api/upload/save");
+                    if (isChunk && lossRate > 0 && ThreadLocalRandom.current().nextDouble() < lossRate) {
+                        droppedCount.incrementAndGet();
+                        return;
+                    }
+                    skip(in, contentLength, skipBuffer);
+                    if (latencyMillis > 0) {
+                        Thread.sleep(latencyMillis);
+                    }
+
+                    String body;
+                    if (path.startsWith("/api/upload/register")) {
+                        body = "{\"code\":200,\"msg\":\"ok\"}";
+                    } else if (isChunk) {
+                        body = "{\"code\":201,\"msg\":\"ok\"}";
+                    } else if (path.startsWith("/api/upload/merge")) {
+                        body = "{\"code\":200,\"msg\":\"ok\",\"url\":\"/benchmark/" + fileId + "\"}";
+                    } else {
+                        body = "{\"code\":0,\"msg\":\"not found\"}";
+                    }
+                    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                    String headers = "HTTP/1.1 200 OK\r\n"
+                            + "Content-Type: application/json\r\n"
+                            + "Content-Length: " + bytes.length + "\r\n"
+                            + "Connection: keep-alive\r\n\r\n";
+                    out.write(headers.getBytes(StandardCharsets.US_ASCII));
+                    out.write(bytes);
+                    out.flush();
+
+                    if (isChunk) {
+                        chunkLatencies.add((System.nanoTime() - startNanos) / 1_000_000);
+                    }
+                }
+            } catch (IOException e) {
+                // 客户端断开或重试时关闭连接
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    break;
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            if (b == -1 && line.size() == 0) {
+                return null;
+            }
+            return line.toString("US-ASCII");
+        }
+
+        private static void skip(InputStream in, long length, byte[] buffer) throws IOException {
+            long remaining = length;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new IOException("请求体不完整");
+                }
+                remaining -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            connectionExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.demoapp.upload;
+
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+import androidx.appcompat.app.AppCompatActivity;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 上传基准测试入口（只在 debug 构建中，见 src/debug/AndroidManifest.xml）
+ * adb shell am start -n com.example.demoapp/.upload.UploadBenchmarkActivity -e suite parity
+ * suite：sweep（默认扫描）、zerocopy（分片读入 byte[] 与文件区间请求体对比）、parity（聊天与上传页面入口对比），默认 parity
+ * 结果显示在页面上，同时输出到 logcat：adb logcat -s UploadBenchmark
+ * 运行期间保持页面在前台（屏幕常亮），避免进程被系统降级后结果失真
+ */
+public class UploadBenchmarkActivity extends AppCompatActivity {
+    private static final String TAG = "UploadBenchmark";
+    public static final String EXTRA_SUITE = "suite";
+
+    // 同一时间只运行一组测试，旋转屏幕或重复启动不会叠加
+    private static final AtomicBoolean RUNNING = new AtomicBoolean(false);
+
+    private TextView output;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        output = new TextView(this);
+        output.setTypeface(Typeface.MONOSPACE);
+        output.setTextIsSelectable(true);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        output.setPadding(padding, padding, padding, padding);
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.setKeepScreenOn(true);
+        scrollView.addView(output);
+        setContentView(scrollView);
+
+        String suite = getIntent().getStringExtra(EXTRA_SUITE);
+        if (suite == null) {
+            suite = "parity";
+        }
+        if (!RUNNING.compareAndSet(false, true)) {
+            output.setText("基准测试正在运行，结果见 logcat（tag: " + TAG + "）\n");
+            return;
+        }
+        output.setText("运行中: " + suite + "\n");
+        String selected = suite;
+        new Thread(() -> runSuite(selected), "upload-benchmark").start();
+    }
+
+    private void runSuite(String suite) {
+        long startTime = System.currentTimeMillis();
+        try {
+            List<UploadBenchmark.Result> results;
+            switch (suite) {
+                case "sweep":
+                    results = UploadBenchmark.runSweep(getApplicationContext());
+                    break;
+                case "zerocopy":
+                    results = UploadBenchmark.runZeroCopyComparison(getApplicationContext());
+                    break;
+                case "parity":
+                    results = UploadBenchmark.runEntryPointParity(getApplicationContext());
+                    break;
+                default:
+                    append("未知的 suite: " + suite + "（可选 sweep / zerocopy / parity）");
+                    return;
+            }
+            for (UploadBenchmark.Result result : results) {
+                append(result.toString());
+            }
+            append("完成，耗时 " + (System.currentTimeMillis() - startTime) / 1000 + "s");
+            Log.d(TAG, "基准测试完成: " + suite);
+        } catch (Exception e) {
+            Log.e(TAG, "基准测试失败: " + suite, e);
+            append("失败: " + e);
+        } finally {
+            RUNNING.set(false);
+        }
+    }
+
+    private void append(String line) {
+        runOnUiThread(() -> {
+            if (!isDestroyed()) {
+                output.append(line + "\n\n");
+            }
+        });
+    }
+}
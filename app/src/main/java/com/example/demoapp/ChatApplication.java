@@ -2,6 +2,13 @@ package com.example.demoapp;
 
 import android.app.Application;
 import com.example.demoapp.log.NativeLogManager;
+import com.example.demoapp.upload.BandwidthLimiter;
+import com.example.demoapp.upload.ChunkCompressor;
+import com.example.demoapp.upload.DownloadCache;
+import com.example.demoapp.upload.FileDownloadManager;
+import com.example.demoapp.upload.UploadDatabase;
+import com.example.demoapp.upload.UploadProgressBus;
+import com.example.demoapp.upload.UploadTransport;
 import com.example.demoapp.utils.UUIDHelper;
 
 public class ChatApplication extends Application {
@@ -20,6 +27,18 @@ public class ChatApplication extends Application {
         UUIDHelper.init(this);
         NativeLogManager.getInstance().i(TAG, "UUID 初始化完成");
         
+        // 初始化下载缓存（索引在第一次使用时加载）
+        DownloadCache.getInstance().initialize(this);
+        // 上传进度、分片确认和下载续传状态都写入共享的上传数据库
+        UploadDatabase database = UploadDatabase.getInstance(this);
+        UploadProgressBus.getInstance().attachStore(database);
+        FileDownloadManager.attachStore(database);
+        
+        // 上传选项来自构建配置（见 app/build.gradle）
+        UploadTransport.getInstance().setH2cPriorKnowledge(BuildConfig.UPLOAD_H2C);
+        BandwidthLimiter.getInstance().setRateLimit(BuildConfig.UPLOAD_RATE_LIMIT);
+        ChunkCompressor.setEnabled(BuildConfig.UPLOAD_COMPRESSION);
+        
         // 记录应用版本信息
         try {
             String versionName = getPackageManager().getPackageInfo(getPackageName(), 0).versionName;
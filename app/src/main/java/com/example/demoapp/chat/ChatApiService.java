@@ -1,5 +1,6 @@
 package com.example.demoapp.chat;
 
+import com.example.demoapp.upload.BandwidthLimiter;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import java.io.IOException;
@@ -7,10 +8,8 @@ import java.util.ArrayList;
 import java.util.List;
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
 public class ChatApiService {
@@ -18,9 +17,6 @@ public class ChatApiService {
     private static final String BASE_URL = "http://120.53.248.2:65002";
     private static final String ONLINE_USERS_URL = BASE_URL + "/chat/users/online";
     private static final String CHAT_HISTORY_URL = BASE_URL + "/api/chat/history";
-    private static final String UPLOAD_REGISTER_URL = BASE_URL + "/api/upload/register";
-    private static final String UPLOAD_SAVE_URL = BASE_URL + "/api/upload/save";
-    private static final String UPLOAD_MERGE_URL = BASE_URL + "/api/upload/merge";
     
     // 导出数据相关 URL
     private static final String EXPORT_CHAT_URL = BASE_URL + "/chat/export";
@@ -110,14 +106,18 @@ public class ChatApiService {
                 .get()
                 .build();
         
+        // 加载历史记录期间上传让路，响应到达后恢复
+        BandwidthLimiter.getInstance().beginInteractive();
         client.newCall(request).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
+                BandwidthLimiter.getInstance().endInteractive();
                 callback.onError(e.getMessage());
             }
             
             @Override
             public void onResponse(Call call, Response response) throws IOException {
+                BandwidthLimiter.getInstance().endInteractive();
                 if (response.isSuccessful() && response.body() != null) {
                     try {
                         String json = response.body().string();
@@ -180,106 +180,6 @@ public class ChatApiService {
         }
     }
     
-    public interface UploadCallback {
-        void onSuccess(String url);
-        void onProgress(int progress);
-        void onError(String error);
-    }
-    
-    public void registerUpload(String fileId, String fileName, int totalChunks, UploadCallback callback) {
-        try {
-            Request request = new Request.Builder()
-                    .url(UPLOAD_REGISTER_URL)
-                    .post(RequestBody.create(new byte[0]))
-                    .addHeader("X-File-Id", fileId)
-                    .addHeader("X-File-Name", java.net.URLEncoder.encode(fileName, "UTF-8"))
-                    .addHeader("X-Total-Chunks", String.valueOf(totalChunks))
-                    .build();
-            
-            client.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    callback.onError("Register failed: " + e.getMessage());
-                }
-                
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    if (response.isSuccessful()) {
-                        callback.onSuccess("");
-                    } else {
-                        String errorBody = response.body() != null ? response.body().string() : "Unknown error";
-                        callback.onError("Register failed: " + response.code() + " - " + errorBody);
-                    }
-                }
-            });
-        } catch (Exception e) {
-            callback.onError("Register error: " + e.getMessage());
-        }
-    }
-    
-    public void uploadChunk(String fileId, int chunkIndex, byte[] chunkData, UploadCallback callback) {
-        RequestBody body = RequestBody.create(chunkData, MediaType.parse("application/octet-stream"));
-        
-        Request request = new Request.Builder()
-                .url(UPLOAD_SAVE_URL)
-                .post(body)
-                .addHeader("X-File-Id", fileId)
-                .addHeader("X-Chunk-Index", String.valueOf(chunkIndex))
-                .build();
-        
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                callback.onError("Upload chunk failed: " + e.getMessage());
-            }
-            
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    callback.onSuccess("");
-                } else {
-                    String errorBody = response.body() != null ? response.body().string() : "Unknown error";
-                    callback.onError("Upload chunk failed: " + response.code() + " - " + errorBody);
-                }
-            }
-        });
-    }
-    
-    public void mergeFile(String fileId, UploadCallback callback) {
-        Request request = new Request.Builder()
-                .url(UPLOAD_MERGE_URL)
-                .post(RequestBody.create(new byte[0]))
-                .addHeader("X-File-Id", fileId)
-                .build();
-        
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                callback.onError("Merge failed: " + e.getMessage());
-            }
-            
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful() && response.body() != null) {
-                    try {
-                        String json = response.body().string();
-                        JsonObject result = gson.fromJson(json, JsonObject.class);
-                        
-                        if (result.has("url")) {
-                            callback.onSuccess(result.get("url").getAsString());
-                        } else {
-                            callback.onError("No URL in response");
-                        }
-                    } catch (Exception e) {
-                        callback.onError("Parse error: " + e.getMessage());
-                    }
-                } else {
-                    callback.onError("Merge failed: " + response.code());
-                }
-            }
-        });
-    }
-    
     /**
      * 获取导出数据的 URL
      * 
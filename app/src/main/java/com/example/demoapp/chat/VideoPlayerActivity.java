@@ -1,6 +1,8 @@
 package com.example.demoapp.chat;
 
+import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
@@ -10,9 +12,16 @@ import androidx.media3.common.Player;
 import androidx.media3.exoplayer.ExoPlayer;
 import androidx.media3.ui.PlayerView;
 import com.example.demoapp.R;
+import com.example.demoapp.upload.DownloadCache;
+import com.example.demoapp.upload.DownloadScheduler;
+import java.io.File;
 
 public class VideoPlayerActivity extends AppCompatActivity {
     
+    private static final String TAG = "VideoPlayerActivity";
+    // 不超过该大小的视频先完整缓存再播放，更大的直接流式播放
+    private static final long CACHE_PLAY_LIMIT = 8 * 1024 * 1024;
+    
     private PlayerView playerView;
     private ExoPlayer player;
     
@@ -37,10 +46,38 @@ public class VideoPlayerActivity extends AppCompatActivity {
         player = new ExoPlayer.Builder(this).build();
         playerView.setPlayer(player);
         
-        MediaItem mediaItem = MediaItem.fromUri(url);
-        player.setMediaItem(mediaItem);
-        player.prepare();
-        player.setPlayWhenReady(true);
+        // 已缓存或足够小的视频从本地文件播放，重复观看不再下载
+        // 查缓存可能要发条件请求，和其他下载一样经调度器执行，界面正在等待所以用 VISIBLE 优先级
+        DownloadScheduler.getInstance().submit("play:" + url, DownloadScheduler.Priority.VISIBLE,
+                progress -> DownloadCache.getInstance().fetchFile(url, CACHE_PLAY_LIMIT),
+                new DownloadScheduler.Listener<File>() {
+                    @Override
+                    public void onProgress(long downloaded, long total) {
+                    }
+
+                    @Override
+                    public void onSuccess(File file) {
+                        play(file);
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        Log.w(TAG, "读取缓存失败，直接播放: " + error);
+                        play(null);
+                    }
+
+                    private void play(File file) {
+                        runOnUiThread(() -> {
+                            if (player == null) {
+                                return;
+                            }
+                            MediaItem mediaItem = file != null ? MediaItem.fromUri(Uri.fromFile(file)) : MediaItem.fromUri(url);
+                            player.setMediaItem(mediaItem);
+                            player.prepare();
+                            player.setPlayWhenReady(true);
+                        });
+                    }
+                });
         
         player.addListener(new Player.Listener() {
             @Override
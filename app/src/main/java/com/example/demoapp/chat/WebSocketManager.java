@@ -3,6 +3,8 @@ package com.example.demoapp.chat;
 import android.os.Handler;
 import android.os.Looper;
 import com.example.demoapp.log.NativeLogManager;
+import com.example.demoapp.upload.BandwidthLimiter;
+import com.example.demoapp.upload.FileUploadManager;
 import com.example.demoapp.utils.UUIDHelper;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
@@ -20,6 +22,9 @@ public class WebSocketManager {
     private static final long PING_INTERVAL = 20000; // 20秒发送一次ping
     private static final long RECONNECT_INTERVAL = 3000;
     private static final int MAX_RECONNECT_ATTEMPTS = 5;
+    // 发送消息后上传让路的时长（WebSocket 发送没有完成回调）
+    private static final long SEND_YIELD_MILLIS = 2000;
+    private static final long PING_YIELD_MILLIS = 500;
     
     private WebSocket webSocket;
     private OkHttpClient client;
@@ -112,6 +117,14 @@ public class WebSocketManager {
                 return;
             }
             
+            if ("UploadMerged".equals(type)) {
+                // 服务器推送异步合并完成，data 为 fileId：上传引擎立即查询合并结果
+                String fileId = json.has("data") ? json.get("data").getAsString() : "";
+                NativeLogManager.getInstance().d(TAG, "收到合并完成通知: " + fileId);
+                FileUploadManager.onMergeNotification(fileId);
+                return;
+            }
+            
             if ("OnlineCount".equals(type)) {
                 String data = json.has("data") ? json.get("data").getAsString() : "";
                 NativeLogManager.getInstance().i(TAG, "在线人数更新: " + data);
@@ -162,6 +175,7 @@ public class WebSocketManager {
                 JsonObject json = new JsonObject();
                 json.addProperty("type", "Ping");
                 json.addProperty("data", "");
+                BandwidthLimiter.getInstance().yieldFor(PING_YIELD_MILLIS);
                 boolean sent = webSocket.send(json.toString());
                 if (!sent) {
                     NativeLogManager.getInstance().e(TAG, "Ping 发送失败");
@@ -203,6 +217,7 @@ public class WebSocketManager {
                 if (message.length() > 50000) {
                     NativeLogManager.getInstance().e(TAG, "消息过大: " + message.length() + " bytes");
                 }
+                BandwidthLimiter.getInstance().yieldFor(SEND_YIELD_MILLIS);
                 boolean result = webSocket.send(message);
                 if (!result) {
                     NativeLogManager.getInstance().e(TAG, "消息发送失败");
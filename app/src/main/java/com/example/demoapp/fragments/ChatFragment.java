@@ -17,6 +17,7 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -26,6 +27,9 @@ import com.example.demoapp.chat.ChatAdapter;
 import com.example.demoapp.chat.ChatMessage;
 import com.example.demoapp.chat.WebSocketManager;
 import com.example.demoapp.log.NativeLogManager;
+import com.example.demoapp.upload.FileUploadManager;
+import com.example.demoapp.upload.MediaDownscaler;
+import com.example.demoapp.upload.UploadScheduler;
 import com.example.demoapp.utils.UUIDHelper;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import java.util.ArrayList;
@@ -45,6 +49,7 @@ public class ChatFragment extends Fragment {
     private View connectionIndicator;
     
     private WebSocketManager webSocketManager;
+    private FileUploadManager uploadManager;
     private List<ChatMessage> messages = new ArrayList<>();
     private Handler mainHandler = new Handler(Looper.getMainLooper());
     private boolean isNearBottom = true;
@@ -80,6 +85,8 @@ public class ChatFragment extends Fragment {
     
     private void setupApiService() {
         apiService = new com.example.demoapp.chat.ChatApiService();
+        // 聊天附件不保存续传会话（上传页面不会接管），失败后由用户重新发送
+        uploadManager = new FileUploadManager();
     }
     
     private void initViews(View view) {
@@ -223,65 +230,85 @@ public class ChatFragment extends Fragment {
     public void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == PICK_FILE_REQUEST && resultCode == Activity.RESULT_OK && data != null) {
+            List<Uri> fileUris = new ArrayList<>();
             if (data.getClipData() != null) {
                 int count = data.getClipData().getItemCount();
                 for (int i = 0; i < count; i++) {
-                    Uri fileUri = data.getClipData().getItemAt(i).getUri();
-                    uploadFile(fileUri);
+                    fileUris.add(data.getClipData().getItemAt(i).getUri());
                 }
             } else if (data.getData() != null) {
-                Uri fileUri = data.getData();
-                uploadFile(fileUri);
+                fileUris.add(data.getData());
             }
+            pickSendMode(fileUris);
+        }
+    }
+    
+    /**
+     * 图片默认缩小后发送（聊天中只按缩略图显示），也可以选择发送原图
+     */
+    private void pickSendMode(List<Uri> fileUris) {
+        if (getContext() == null || fileUris.isEmpty()) return;
+        boolean hasImage = false;
+        for (Uri uri : fileUris) {
+            if (MediaDownscaler.isDownscalable(getContext(), uri)) {
+                hasImage = true;
+                break;
+            }
+        }
+        if (!hasImage) {
+            prepareAndUpload(fileUris, true);
+            return;
+        }
+        new AlertDialog.Builder(getContext())
+                .setTitle("图片发送方式")
+                .setItems(new String[]{"压缩发送", "发送原图"}, (dialog, which) -> prepareAndUpload(fileUris, which == 1))
+                .show();
+    }
+    
+    private void prepareAndUpload(List<Uri> fileUris, boolean sendOriginal) {
+        if (getContext() == null) return;
+        for (Uri uri : fileUris) {
+            MediaDownscaler.getInstance().prepare(getContext(), uri, sendOriginal,
+                    (uploadUri, downscaled) -> uploadFile(uploadUri));
         }
     }
     
     private void uploadFile(Uri fileUri) {
-        try {
-            if (getContext() == null) return;
-            
-            android.content.ContentResolver resolver = getContext().getContentResolver();
-            java.io.InputStream inputStream = resolver.openInputStream(fileUri);
-            
-            if (inputStream == null) {
-                Toast.makeText(getContext(), "无法读取文件", Toast.LENGTH_SHORT).show();
-                return;
+        if (getContext() == null) return;
+        
+        String fileName = getFileName(fileUri);
+        Toast.makeText(getContext(), "开始上传: " + fileName, Toast.LENGTH_SHORT).show();
+        android.content.Context appContext = getContext().getApplicationContext();
+        
+        // 与上传页共用同一个上传引擎：并发分片、重试，聊天附件优先发送
+        String fileId = java.util.UUID.randomUUID().toString();
+        uploadManager.uploadFile(getContext(), fileUri, fileId, UploadScheduler.Priority.INTERACTIVE,
+                new FileUploadManager.UploadCallback() {
+            @Override
+            public void onProgress(int progress) {
             }
             
-            // 获取文件名
-            String fileName = getFileName(fileUri);
-            
-            // 获取文件大小
-            long fileSize = getFileSize(fileUri);
-            
-            if (fileSize <= 0) {
-                Toast.makeText(getContext(), "文件大小无效", Toast.LENGTH_SHORT).show();
-                inputStream.close();
-                return;
+            @Override
+            public void onSuccess(String url, String serverFileName) {
+                String name = serverFileName != null && !serverFileName.isEmpty() ? serverFileName : fileName;
+                MediaDownscaler.getInstance().release(appContext, fileUri);
+                NativeLogManager.getInstance().i(TAG, "附件上传成功: " + name + " -> " + url);
+                // 页面已销毁时连接已断开，不再发送消息
+                if (getView() == null || webSocketManager == null) {
+                    return;
+                }
+                // 以 Markdown 链接发送文件消息
+                webSocketManager.sendTextMessage("[" + name + "](" + url + ")");
             }
             
-            Toast.makeText(getContext(), "开始上传: " + fileName, Toast.LENGTH_SHORT).show();
-            
-            // 在后台线程执行文件上传
-            new Thread(() -> {
-                try {
-                    uploadFileInChunks(inputStream, fileName, fileSize);
-                } catch (Exception e) {
-                    mainHandler.post(() -> 
-                        Toast.makeText(getContext(), "上传失败: " + e.getMessage(), Toast.LENGTH_SHORT).show()
-                    );
-                } finally {
-                    try {
-                        inputStream.close();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+            @Override
+            public void onError(String error) {
+                MediaDownscaler.getInstance().release(appContext, fileUri);
+                if (getView() != null) {
+                    Toast.makeText(getContext(), "上传失败: " + error, Toast.LENGTH_SHORT).show();
                 }
-            }).start();
-            
-        } catch (Exception e) {
-            Toast.makeText(getContext(), "文件处理失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
+            }
+        });
     }
     
     private String getFileName(Uri uri) {
@@ -318,38 +345,6 @@ public class ChatFragment extends Fragment {
         return fileName;
     }
     
-    private long getFileSize(Uri uri) {
-        long size = 0;
-        if (getContext() == null) return size;
-        
-        android.database.Cursor cursor = getContext().getContentResolver().query(
-            uri, null, null, null, null
-        );
-        
-        if (cursor != null) {
-            try {
-                if (cursor.moveToFirst()) {
-                    int sizeIndex = cursor.getColumnIndex(android.provider.OpenableColumns.SIZE);
-                    if (sizeIndex != -1) {
-                        size = cursor.getLong(sizeIndex);
-                    }
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-        
-        return size;
-    }
-    
-    private void uploadFileInChunks(java.io.InputStream inputStream, String fileName, long fileSize) throws Exception {
-        // 文件上传已改为使用 HTTP API，不再通过 WebSocket 发送分块
-        // 请使用 ChatFragmentNew.java 中的实现
-        mainHandler.post(() -> 
-            Toast.makeText(getContext(), "请使用新版本的文件上传功能", Toast.LENGTH_SHORT).show()
-        );
-    }
-    
     private void scrollToBottom() {
         if (messages.size() > 0) {
             recyclerView.smoothScrollToPosition(messages.size() - 1);
@@ -513,6 +508,9 @@ public class ChatFragment extends Fragment {
         if (webSocketManager != null) {
             webSocketManager.disconnect();
         }
+        if (uploadManager != null) {
+            uploadManager.shutdown();
+        }
         
         // 清理加载指示器
         if (historyLoadingIndicator != null && historyLoadingIndicator.getParent() != null) {
@@ -18,15 +18,18 @@ import android.widget.PopupWindow;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.demoapp.R;
 import com.example.demoapp.chat.*;
+import com.example.demoapp.upload.FileUploadManager;
+import com.example.demoapp.upload.MediaDownscaler;
+import com.example.demoapp.upload.UploadScheduler;
 import com.example.demoapp.utils.UUIDHelper;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -43,7 +46,6 @@ import java.util.List;
 public class ChatFragmentNew extends Fragment {
     
     private static final int PICK_FILE_REQUEST = 1001;
-    private static final int CHUNK_SIZE = 512 * 1024; // 512KB per chunk
     
     // UI Components
     private RecyclerView recyclerView;
@@ -65,6 +67,7 @@ public class ChatFragmentNew extends Fragment {
     // Services
     private WebSocketManager webSocketManager;
     private ChatApiService apiService;
+    private FileUploadManager uploadManager;
     
     // Data
     private List<ChatMessage> messages = new ArrayList<>();
@@ -178,6 +181,8 @@ public class ChatFragmentNew extends Fragment {
     
     private void setupApiService() {
         apiService = new ChatApiService();
+        // 聊天附件不保存续传会话（上传页面不会接管），失败后由用户重新发送
+        uploadManager = new FileUploadManager();
     }
     
     private void setupListeners() {
@@ -373,189 +378,85 @@ public class ChatFragmentNew extends Fragment {
     public void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == PICK_FILE_REQUEST && resultCode == Activity.RESULT_OK && data != null) {
+            List<Uri> fileUris = new ArrayList<>();
             if (data.getClipData() != null) {
                 int count = data.getClipData().getItemCount();
                 for (int i = 0; i < count; i++) {
-                    Uri fileUri = data.getClipData().getItemAt(i).getUri();
-                    uploadFileViaHttp(fileUri);
+                    fileUris.add(data.getClipData().getItemAt(i).getUri());
                 }
             } else if (data.getData() != null) {
-                Uri fileUri = data.getData();
-                uploadFileViaHttp(fileUri);
+                fileUris.add(data.getData());
             }
+            pickSendMode(fileUris);
+        }
+    }
+    
+    /**
+     * Images are downscaled by default (chat renders them as thumbnails); the user can choose to send originals
+     */
+    private void pickSendMode(List<Uri> fileUris) {
+        if (getContext() == null || fileUris.isEmpty()) return;
+        boolean hasImage = false;
+        for (Uri uri : fileUris) {
+            if (MediaDownscaler.isDownscalable(getContext(), uri)) {
+                hasImage = true;
+                break;
+            }
+        }
+        if (!hasImage) {
+            prepareAndUpload(fileUris, true);
+            return;
+        }
+        new AlertDialog.Builder(getContext())
+                .setTitle("Send images as")
+                .setItems(new String[]{"Compressed", "Original"}, (dialog, which) -> prepareAndUpload(fileUris, which == 1))
+                .show();
+    }
+    
+    private void prepareAndUpload(List<Uri> fileUris, boolean sendOriginal) {
+        if (getContext() == null) return;
+        for (Uri uri : fileUris) {
+            MediaDownscaler.getInstance().prepare(getContext(), uri, sendOriginal,
+                    (uploadUri, downscaled) -> uploadFileViaHttp(uploadUri));
         }
     }
     
     private void uploadFileViaHttp(Uri fileUri) {
-        new Thread(() -> {
-            try {
-                if (getContext() == null) return;
-                
-                InputStream inputStream = getContext().getContentResolver().openInputStream(fileUri);
-                if (inputStream == null) {
-                    mainHandler.post(() -> Toast.makeText(getContext(), "Cannot read file", Toast.LENGTH_SHORT).show());
-                    return;
-                }
-                
-                String fileName = getFileName(fileUri);
-                long fileSize = getFileSize(fileUri);
-                
-                if (fileSize <= 0 || fileSize > 10 * 1024 * 1024) { // 10MB limit
-                    mainHandler.post(() -> Toast.makeText(getContext(), "File size invalid or too large (max 10MB)", Toast.LENGTH_SHORT).show());
-                    inputStream.close();
-                    return;
-                }
-                
-                String fileId = java.util.UUID.randomUUID().toString();
-                int totalChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
-                
-                mainHandler.post(() -> Toast.makeText(getContext(), "Uploading: " + fileName, Toast.LENGTH_SHORT).show());
-                
-                final boolean[] registerSuccess = {false};
-                final boolean[] uploadSuccess = {true};
-                final String[] finalUrl = {null};
-                
-                // Step 1: Register upload
-                final Object registerLock = new Object();
-                apiService.registerUpload(fileId, fileName, totalChunks, new ChatApiService.UploadCallback() {
-                    @Override
-                    public void onSuccess(String url) {
-                        synchronized (registerLock) {
-                            registerSuccess[0] = true;
-                            registerLock.notify();
-                        }
-                    }
-                    
-                    @Override
-                    public void onProgress(int progress) {}
-                    
-                    @Override
-                    public void onError(String error) {
-                        synchronized (registerLock) {
-                            registerSuccess[0] = false;
-                            registerLock.notify();
-                        }
-                        mainHandler.post(() -> Toast.makeText(getContext(), "Register failed: " + error, Toast.LENGTH_SHORT).show());
-                    }
-                });
-                
-                // Wait for registration
-                synchronized (registerLock) {
-                    registerLock.wait(5000); // 5 second timeout
-                }
-                
-                if (!registerSuccess[0]) {
-                    inputStream.close();
-                    return;
-                }
-                
-                // Step 2: Upload chunks sequentially
-                byte[] buffer = new byte[CHUNK_SIZE];
-                int bytesRead;
-                int chunkIndex = 0;
-                
-                while ((bytesRead = inputStream.read(buffer)) != -1 && uploadSuccess[0]) {
-                    byte[] chunkData = new byte[bytesRead];
-                    System.arraycopy(buffer, 0, chunkData, 0, bytesRead);
-                    
-                    final int currentChunk = chunkIndex;
-                    final int progress = (int) (((currentChunk + 1) * 100) / totalChunks);
-                    final Object chunkLock = new Object();
-                    final boolean[] chunkSuccess = {false};
-                    
-                    apiService.uploadChunk(fileId, chunkIndex, chunkData, new ChatApiService.UploadCallback() {
-                        @Override
-                        public void onSuccess(String url) {
-                            synchronized (chunkLock) {
-                                chunkSuccess[0] = true;
-                                chunkLock.notify();
-                            }
-                            if (currentChunk % 5 == 0 || currentChunk == totalChunks - 1) {
-                                mainHandler.post(() -> Toast.makeText(getContext(), "Progress: " + progress + "%", Toast.LENGTH_SHORT).show());
-                            }
-                        }
-                        
-                        @Override
-                        public void onProgress(int p) {}
-                        
-                        @Override
-                        public void onError(String error) {
-                            synchronized (chunkLock) {
-                                chunkSuccess[0] = false;
-                                chunkLock.notify();
-                            }
-                            mainHandler.post(() -> Toast.makeText(getContext(), "Chunk " + currentChunk + " failed: " + error, Toast.LENGTH_SHORT).show());
-                        }
-                    });
-                    
-                    // Wait for chunk upload
-                    synchronized (chunkLock) {
-                        chunkLock.wait(10000); // 10 second timeout per chunk
-                    }
-                    
-                    if (!chunkSuccess[0]) {
-                        uploadSuccess[0] = false;
-                        break;
-                    }
-                    
-                    chunkIndex++;
-                    Thread.sleep(50); // Small delay between chunks
-                }
-                
-                inputStream.close();
-                
-                if (!uploadSuccess[0]) {
-                    mainHandler.post(() -> Toast.makeText(getContext(), "Upload failed", Toast.LENGTH_SHORT).show());
+        if (getContext() == null) return;
+        
+        String fileName = getFileName(fileUri);
+        Toast.makeText(getContext(), "Uploading: " + fileName, Toast.LENGTH_SHORT).show();
+        android.content.Context appContext = getContext().getApplicationContext();
+        
+        // 与上传页共用同一个上传引擎：并发分片、重试，没有大小限制；聊天附件以 INTERACTIVE 优先级发送
+        String fileId = java.util.UUID.randomUUID().toString();
+        uploadManager.uploadFile(getContext(), fileUri, fileId, UploadScheduler.Priority.INTERACTIVE,
+                new FileUploadManager.UploadCallback() {
+            @Override
+            public void onProgress(int progress) {
+            }
+            
+            @Override
+            public void onSuccess(String url, String serverFileName) {
+                MediaDownscaler.getInstance().release(appContext, fileUri);
+                // 页面已销毁时连接已断开，不再发送消息
+                if (getView() == null || webSocketManager == null) {
                     return;
                 }
-                
-                // Step 3: Merge file
-                final Object mergeLock = new Object();
-                final boolean[] mergeSuccess = {false};
-                
-                apiService.mergeFile(fileId, new ChatApiService.UploadCallback() {
-                    @Override
-                    public void onSuccess(String url) {
-                        synchronized (mergeLock) {
-                            mergeSuccess[0] = true;
-                            finalUrl[0] = url;
-                            mergeLock.notify();
-                        }
-                    }
-                    
-                    @Override
-                    public void onProgress(int progress) {}
-                    
-                    @Override
-                    public void onError(String error) {
-                        synchronized (mergeLock) {
-                            mergeSuccess[0] = false;
-                            mergeLock.notify();
-                        }
-                        mainHandler.post(() -> Toast.makeText(getContext(), "Merge failed: " + error, Toast.LENGTH_SHORT).show());
-                    }
-                });
-                
-                // Wait for merge
-                synchronized (mergeLock) {
-                    mergeLock.wait(10000); // 10 second timeout
-                }
-                
-                if (mergeSuccess[0] && finalUrl[0] != null) {
-                    mainHandler.post(() -> {
-                        Toast.makeText(getContext(), "Upload complete!", Toast.LENGTH_SHORT).show();
-                        // Send file link as Markdown message
-                        String fileMessage = "[" + fileName + "](" + finalUrl[0] + ")";
-                        webSocketManager.sendTextMessage(fileMessage);
-                    });
-                } else {
-                    mainHandler.post(() -> Toast.makeText(getContext(), "Upload failed at merge step", Toast.LENGTH_SHORT).show());
+                Toast.makeText(getContext(), "Upload complete!", Toast.LENGTH_SHORT).show();
+                // Send file link as Markdown message
+                String name = serverFileName != null && !serverFileName.isEmpty() ? serverFileName : fileName;
+                webSocketManager.sendTextMessage("[" + name + "](" + url + ")");
+            }
+            
+            @Override
+            public void onError(String error) {
+                MediaDownscaler.getInstance().release(appContext, fileUri);
+                if (getView() != null) {
+                    Toast.makeText(getContext(), "Upload failed: " + error, Toast.LENGTH_SHORT).show();
                 }
-                
-            } catch (Exception e) {
-                mainHandler.post(() -> Toast.makeText(getContext(), "Upload error: " + e.getMessage(), Toast.LENGTH_SHORT).show());
             }
-        }).start();
+        });
     }
     
     private String getFileName(Uri uri) {
@@ -578,26 +479,6 @@ public class ChatFragmentNew extends Fragment {
         return fileName;
     }
     
-    private long getFileSize(Uri uri) {
-        long size = 0;
-        if (getContext() == null) return size;
-        
-        android.database.Cursor cursor = getContext().getContentResolver().query(uri, null, null, null, null);
-        if (cursor != null) {
-            try {
-                if (cursor.moveToFirst()) {
-                    int sizeIndex = cursor.getColumnIndex(android.provider.OpenableColumns.SIZE);
-                    if (sizeIndex != -1) {
-                        size = cursor.getLong(sizeIndex);
-                    }
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-        return size;
-    }
-    
     private void scrollToBottom() {
         if (messages.size() > 0) {
             recyclerView.smoothScrollToPosition(messages.size() - 1);
@@ -757,6 +638,9 @@ public class ChatFragmentNew extends Fragment {
         if (webSocketManager != null) {
             webSocketManager.disconnect();
         }
+        if (uploadManager != null) {
+            uploadManager.shutdown();
+        }
         closeMentionDropdown();
         
         // 清理加载指示器
@@ -18,10 +18,13 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.demoapp.R;
+import com.example.demoapp.upload.CircuitBreaker;
 import com.example.demoapp.upload.FileUploadManager;
 import com.example.demoapp.upload.UploadDatabase;
 import com.example.demoapp.upload.UploadHistoryAdapter;
 import com.example.demoapp.upload.UploadRecord;
+import com.example.demoapp.upload.UploadScheduler;
+import com.example.demoapp.upload.UploadSessionRecord;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.io.BufferedReader;
@@ -72,6 +75,7 @@ public class ExploreFragment extends Fragment {
         setupRecyclerView();
         setupButtons();
         loadHistory();
+        resumePendingUploads();
         
         return view;
     }
@@ -83,8 +87,8 @@ public class ExploreFragment extends Fragment {
         btnExport = view.findViewById(R.id.btnExport);
         btnImport = view.findViewById(R.id.btnImport);
         
-        database = new UploadDatabase(requireContext());
-        uploadManager = new FileUploadManager();
+        database = UploadDatabase.getInstance(requireContext());
+        uploadManager = new FileUploadManager(FileUploadManager.ORIGIN_EXPLORE_PAGE);
         adapter = new UploadHistoryAdapter();
     }
 
@@ -102,11 +106,12 @@ public class ExploreFragment extends Fragment {
     private void openFilePicker() {
         android.util.Log.d("ExploreFragment", "打开文件选择器");
         try {
-            Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+            // 使用 OPEN_DOCUMENT 以便持久化读取权限，进程重启后仍可续传
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
             intent.setType("*/*");
             intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
             intent.addCategory(Intent.CATEGORY_OPENABLE);
-            filePickerLauncher.launch(Intent.createChooser(intent, "选择文件"));
+            filePickerLauncher.launch(intent);
         } catch (Exception e) {
             android.util.Log.e("ExploreFragment", "打开文件选择器失败", e);
             Toast.makeText(requireContext(), "打开文件选择器失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
@@ -140,6 +145,7 @@ public class ExploreFragment extends Fragment {
     }
 
     private void uploadFile(Uri fileUri) {
+        persistReadPermission(fileUri);
         String fileId = UUID.randomUUID().toString();
         String fileName = getFileName(fileUri);
         long fileSize = getFileSize(fileUri);
@@ -150,13 +156,52 @@ public class ExploreFragment extends Fragment {
         database.saveUploadRecord(record);
         loadHistory();
 
-        uploadManager.uploadFile(requireContext(), fileUri, fileId, new FileUploadManager.UploadCallback() {
+        startUpload(fileUri, record, UploadScheduler.Priority.NORMAL);
+    }
+
+    /**
+     * 续传上次未完成的上传（例如应用被系统杀死）
+     */
+    private void resumePendingUploads() {
+        List<UploadRecord> records = database.getAllRecords();
+        for (UploadSessionRecord session : uploadManager.getPendingSessions(requireContext())) {
+            UploadRecord record = null;
+            for (UploadRecord r : records) {
+                if (r.getId().equals(session.getFileId())) {
+                    record = r;
+                    break;
+                }
+            }
+            if (record == null) {
+                record = new UploadRecord(session.getFileId(), session.getFileName(), session.getFileSize(),
+                        0, "", System.currentTimeMillis());
+                database.saveUploadRecord(record);
+            }
+            android.util.Log.d("ExploreFragment", "续传: " + session.getFileName());
+            startUpload(Uri.parse(session.getUri()), record, UploadScheduler.Priority.BACKGROUND);
+        }
+        loadHistory();
+    }
+
+    private void persistReadPermission(Uri uri) {
+        try {
+            requireContext().getContentResolver().takePersistableUriPermission(
+                    uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            android.util.Log.w("ExploreFragment", "无法持久化读取权限: " + uri);
+        }
+    }
+
+    private void startUpload(Uri fileUri, UploadRecord record, UploadScheduler.Priority priority) {
+        String fileName = record.getName();
+        uploadManager.uploadFile(requireContext(), fileUri, record.getId(), priority, new FileUploadManager.UploadCallback() {
             @Override
             public void onProgress(int progress) {
-                android.util.Log.d("ExploreFragment", "上传进度: " + progress + "%");
+                // 进度已由 UploadProgressBus 合并并批量持久化，这里只刷新对应的行
                 record.setProgress(progress);
-                database.saveUploadRecord(record);
-                loadHistory();
+                if (getView() != null) {
+                    adapter.updateProgress(record.getId(), progress);
+                }
             }
 
             @Override
@@ -166,14 +211,33 @@ public class ExploreFragment extends Fragment {
                 record.setUrl(url);
                 record.setName(serverFileName != null && !serverFileName.isEmpty() ? serverFileName : fileName);
                 database.saveUploadRecord(record);
-                loadHistory();
+                // 页面销毁后上传在后台完成：只保存记录
+                if (getView() == null) {
+                    return;
+                }
+                if (!adapter.updateRecord(record)) {
+                    loadHistory();
+                }
                 showStatus("上传成功: " + record.getName(), true);
                 Toast.makeText(requireContext(), "上传成功: " + record.getName(), Toast.LENGTH_LONG).show();
             }
 
+            @Override
+            public void onWindowChanged(int window) {
+                android.util.Log.d("ExploreFragment", "并发窗口: " + window + " (" + record.getName() + ")");
+            }
+
+            @Override
+            public void onCircuitStateChanged(CircuitBreaker.State state) {
+                android.util.Log.d("ExploreFragment", "熔断器状态: " + state + " (" + record.getName() + ")");
+            }
+
             @Override
             public void onError(String error) {
                 android.util.Log.e("ExploreFragment", "上传失败: " + error);
+                if (getView() == null) {
+                    return;
+                }
                 showStatus("上传失败: " + error, false);
                 Toast.makeText(requireContext(), "上传失败: " + error, Toast.LENGTH_LONG).show();
             }
@@ -2,23 +2,32 @@ package com.example.demoapp.fragments;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.ScrollView;
+import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.demoapp.R;
 import com.example.demoapp.upload.FileUploadManager;
+import com.example.demoapp.upload.UploadBundle;
 import com.example.demoapp.upload.UploadDatabase;
 import com.example.demoapp.upload.UploadHistoryAdapter;
+import com.example.demoapp.upload.UploadMetrics;
 import com.example.demoapp.upload.UploadRecord;
+import com.example.demoapp.upload.UploadScheduler;
+import com.example.demoapp.upload.UploadSessionRecord;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -46,21 +55,44 @@ public class UploadFragment extends Fragment {
         setupRecyclerView();
         setupListeners();
         loadUploadHistory();
+        resumePendingUploads();
     }
     
     private void initViews(View view) {
         recyclerView = view.findViewById(R.id.upload_recycler_view);
         btnSelectFiles = view.findViewById(R.id.btn_select_files);
         Button btnClearHistory = view.findViewById(R.id.btn_clear_history);
+        Button btnMetrics = view.findViewById(R.id.btn_upload_metrics);
         
-        uploadManager = new FileUploadManager();
-        database = new UploadDatabase(getContext());
+        uploadManager = new FileUploadManager(FileUploadManager.ORIGIN_UPLOAD_PAGE);
+        database = UploadDatabase.getInstance(requireContext());
         
         btnClearHistory.setOnClickListener(v -> {
             database.clearAll();
             loadUploadHistory();
             Toast.makeText(getContext(), "历史记录已清除", Toast.LENGTH_SHORT).show();
         });
+        btnMetrics.setOnClickListener(v -> showMetrics());
+    }
+    
+    /**
+     * 显示上传指标（延迟分布、重试原因、吞吐）
+     */
+    private void showMetrics() {
+        TextView textView = new TextView(requireContext());
+        textView.setTypeface(Typeface.MONOSPACE);
+        textView.setTextSize(12);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        textView.setPadding(padding, padding, padding, padding);
+        textView.setTextIsSelectable(true);
+        textView.setText(UploadMetrics.getInstance().formatReport());
+        ScrollView scrollView = new ScrollView(requireContext());
+        scrollView.addView(textView);
+        new AlertDialog.Builder(requireContext())
+                .setTitle("Upload Metrics")
+                .setView(scrollView)
+                .setPositiveButton("OK", null)
+                .show();
     }
     
     private void setupRecyclerView() {
@@ -74,33 +106,147 @@ public class UploadFragment extends Fragment {
     }
     
     private void openFilePicker() {
-        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        // 使用 OPEN_DOCUMENT 以便持久化读取权限，进程重启后仍可续传
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
         intent.setType("*/*");
         intent.addCategory(Intent.CATEGORY_OPENABLE);
         intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
-        startActivityForResult(Intent.createChooser(intent, "Select Files"), PICK_FILE_REQUEST);
+        startActivityForResult(intent, PICK_FILE_REQUEST);
     }
     
     @Override
     public void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == PICK_FILE_REQUEST && resultCode == Activity.RESULT_OK && data != null) {
+            List<Uri> fileUris = new ArrayList<>();
             if (data.getClipData() != null) {
                 int count = data.getClipData().getItemCount();
                 for (int i = 0; i < count; i++) {
-                    Uri fileUri = data.getClipData().getItemAt(i).getUri();
-                    uploadFile(fileUri);
+                    fileUris.add(data.getClipData().getItemAt(i).getUri());
                 }
             } else if (data.getData() != null) {
-                Uri fileUri = data.getData();
+                fileUris.add(data.getData());
+            }
+            uploadFiles(fileUris);
+        }
+    }
+    
+    /**
+     * 多个小文件打包成一个会话上传（每包一次注册、一次合并），其余文件单独上传
+     */
+    private void uploadFiles(List<Uri> fileUris) {
+        if (getContext() == null) return;
+        
+        List<Uri> smallFiles = new ArrayList<>();
+        List<Long> smallSizes = new ArrayList<>();
+        for (Uri fileUri : fileUris) {
+            long size = getFileSize(fileUri);
+            if (UploadBundle.isBundleCandidate(size)) {
+                smallFiles.add(fileUri);
+                smallSizes.add(size);
+            } else {
                 uploadFile(fileUri);
             }
         }
+        
+        List<Uri> group = new ArrayList<>();
+        long groupSize = 0;
+        for (int i = 0; i < smallFiles.size(); i++) {
+            long size = smallSizes.get(i);
+            if (!group.isEmpty() && (group.size() >= UploadBundle.MAX_FILES
+                    || groupSize + size > UploadBundle.MAX_BUNDLE_SIZE)) {
+                uploadGroup(group);
+                group = new ArrayList<>();
+                groupSize = 0;
+            }
+            group.add(smallFiles.get(i));
+            groupSize += size;
+        }
+        uploadGroup(group);
+    }
+    
+    private void uploadGroup(List<Uri> group) {
+        if (group.size() >= UploadBundle.MIN_FILES) {
+            uploadBundle(group);
+        } else {
+            for (Uri fileUri : group) {
+                uploadFile(fileUri);
+            }
+        }
+    }
+    
+    private void uploadBundle(List<Uri> fileUris) {
+        String bundleId = UUID.randomUUID().toString();
+        List<UploadRecord> records = new ArrayList<>();
+        for (Uri fileUri : fileUris) {
+            persistReadPermission(fileUri);
+            UploadRecord record = new UploadRecord(UUID.randomUUID().toString(), getFileName(fileUri),
+                    getFileSize(fileUri), 0, "", System.currentTimeMillis());
+            database.insertOrUpdate(record);
+            records.add(record);
+        }
+        loadUploadHistory();
+        
+        uploadManager.uploadBundle(getContext(), fileUris, bundleId, UploadScheduler.Priority.NORMAL,
+                new FileUploadManager.UploadCallback() {
+            @Override
+            public void onProgress(int progress) {
+                if (getActivity() != null) {
+                    for (UploadRecord record : records) {
+                        record.setProgress(progress);
+                        adapter.updateProgress(record.getId(), progress);
+                    }
+                }
+            }
+            
+            @Override
+            public void onSuccess(String url, String fileName) {
+                // 打包会话通过 onBundleSuccess 回调每个文件的地址
+            }
+            
+            @Override
+            public void onBundleSuccess(List<UploadBundle.Entry> files) {
+                if (getActivity() != null) {
+                    getActivity().runOnUiThread(() -> {
+                        boolean reload = false;
+                        for (UploadBundle.Entry entry : files) {
+                            UploadRecord record = records.get(entry.getIndex());
+                            record.setProgress(100);
+                            record.setUrl(entry.getUrl());
+                            record.setName(entry.getName());
+                            database.insertOrUpdate(record);
+                            if (!adapter.updateRecord(record)) {
+                                reload = true;
+                            }
+                        }
+                        if (reload) {
+                            loadUploadHistory();
+                        }
+                        Toast.makeText(getContext(), "上传成功: " + files.size() + " 个文件", Toast.LENGTH_SHORT).show();
+                    });
+                }
+            }
+            
+            @Override
+            public void onError(String error) {
+                if (getActivity() != null) {
+                    getActivity().runOnUiThread(() -> {
+                        Toast.makeText(getContext(), "上传失败: " + error, Toast.LENGTH_SHORT).show();
+                        // 打包会话不续传，移除这些文件的记录
+                        for (UploadRecord record : records) {
+                            database.delete(record.getId());
+                        }
+                        loadUploadHistory();
+                    });
+                }
+            }
+        });
     }
     
     private void uploadFile(Uri fileUri) {
         if (getContext() == null) return;
         
+        persistReadPermission(fileUri);
         String fileId = UUID.randomUUID().toString();
         
         // 创建初始记录
@@ -115,16 +261,55 @@ public class UploadFragment extends Fragment {
         database.insertOrUpdate(record);
         loadUploadHistory();
         
+        startUpload(fileUri, record, UploadScheduler.Priority.NORMAL);
+    }
+    
+    /**
+     * 续传上次未完成的上传（例如应用被系统杀死）
+     */
+    private void resumePendingUploads() {
+        if (getContext() == null) return;
+        
+        List<UploadRecord> records = database.getAllRecords();
+        for (UploadSessionRecord session : uploadManager.getPendingSessions(getContext())) {
+            UploadRecord record = null;
+            for (UploadRecord r : records) {
+                if (r.getId().equals(session.getFileId())) {
+                    record = r;
+                    break;
+                }
+            }
+            if (record == null) {
+                record = new UploadRecord(session.getFileId(), session.getFileName(), session.getFileSize(),
+                        0, "", System.currentTimeMillis());
+                database.insertOrUpdate(record);
+            }
+            android.util.Log.d("UploadFragment", "续传: " + session.getFileName());
+            startUpload(Uri.parse(session.getUri()), record, UploadScheduler.Priority.BACKGROUND);
+        }
+        loadUploadHistory();
+    }
+    
+    private void persistReadPermission(Uri uri) {
+        try {
+            getContext().getContentResolver().takePersistableUriPermission(
+                    uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            android.util.Log.w("UploadFragment", "无法持久化读取权限: " + uri);
+        }
+    }
+    
+    private void startUpload(Uri fileUri, UploadRecord record, UploadScheduler.Priority priority) {
+        String fileId = record.getId();
+        
         // 开始上传
-        uploadManager.uploadFile(getContext(), fileUri, fileId, new FileUploadManager.UploadCallback() {
+        uploadManager.uploadFile(getContext(), fileUri, fileId, priority, new FileUploadManager.UploadCallback() {
             @Override
             public void onProgress(int progress) {
+                // 进度已由 UploadProgressBus 合并并批量持久化，这里只刷新对应的行
                 if (getActivity() != null) {
-                    getActivity().runOnUiThread(() -> {
-                        record.setProgress(progress);
-                        database.insertOrUpdate(record);
-                        loadUploadHistory();
-                    });
+                    record.setProgress(progress);
+                    adapter.updateProgress(fileId, progress);
                 }
             }
             
@@ -137,7 +322,9 @@ public class UploadFragment extends Fragment {
                         record.setUrl(url);
                         record.setName(fileName);
                         database.insertOrUpdate(record);
-                        loadUploadHistory();
+                        if (!adapter.updateRecord(record)) {
+                            loadUploadHistory();
+                        }
                         Toast.makeText(getContext(), "上传成功: " + fileName, Toast.LENGTH_SHORT).show();
                     });
                 }
@@ -148,8 +335,11 @@ public class UploadFragment extends Fragment {
                 if (getActivity() != null) {
                     getActivity().runOnUiThread(() -> {
                         Toast.makeText(getContext(), "上传失败: " + error, Toast.LENGTH_SHORT).show();
-                        database.delete(fileId);
-                        loadUploadHistory();
+                        // 会话仍可续传时保留记录，下次打开页面时从已确认的分片处继续
+                        if (!uploadManager.isResumable(getContext(), fileId)) {
+                            database.delete(fileId);
+                            loadUploadHistory();
+                        }
                     });
                 }
             }
@@ -217,8 +407,5 @@ public class UploadFragment extends Fragment {
         if (uploadManager != null) {
             uploadManager.shutdown();
         }
-        if (database != null) {
-            database.close();
-        }
     }
 }
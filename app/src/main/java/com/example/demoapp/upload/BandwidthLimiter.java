@@ -0,0 +1,164 @@
+package com.example.demoapp.upload;
+
+import android.util.Log;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * 上传带宽整形（令牌桶）- 所有分片请求体共享一个桶
+ * 默认不限速；聊天发送、历史记录加载等交互请求进行中时，上传速率降到 INTERACTIVE_RATE（128KB/s），
+ * 避免分片占满上行链路导致聊天和心跳排队
+ */
+public class BandwidthLimiter {
+    private static final String TAG = "BandwidthLimiter";
+    private static final BandwidthLimiter INSTANCE = new BandwidthLimiter();
+
+    public static final long UNLIMITED = 0;
+    // 让路期间的上传速率
+    private static final long INTERACTIVE_RATE = 128 * 1024;
+    // 桶容量：约 100ms 的流量，最少 16KB，限制突发写入 socket 的数据量
+    private static final double BURST_SECONDS = 0.1;
+    private static final long MIN_BURST_BYTES = 16 * 1024;
+    // 每次从桶中申请的最大字节数
+    private static final long SLICE_BYTES = 16 * 1024;
+
+    private long rateBytesPerSecond = UNLIMITED;
+    private int interactiveCount = 0;
+    private long yieldUntilMillis = 0;
+
+    private double tokens = 0;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * 独立的限速器（基准测试使用，不受聊天让路影响），应用中的上传使用 getInstance()
+     */
+    BandwidthLimiter() {
+    }
+
+    public static BandwidthLimiter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 设置上传总速率上限（字节/秒），UNLIMITED 表示不限速；应用启动时按 BuildConfig.UPLOAD_RATE_LIMIT 设置
+     */
+    public synchronized void setRateLimit(long bytesPerSecond) {
+        rateBytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+        notifyAll();
+        Log.d(TAG, "上传限速: " + rateBytesPerSecond + " B/s");
+    }
+
+    public synchronized long getRateLimit() {
+        return rateBytesPerSecond;
+    }
+
+    /**
+     * 交互请求开始（如历史记录加载），与 endInteractive 成对调用
+     */
+    public synchronized void beginInteractive() {
+        interactiveCount++;
+    }
+
+    public synchronized void endInteractive() {
+        if (interactiveCount > 0) {
+            interactiveCount--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * 没有完成回调的交互发送（如 WebSocket 消息）：在接下来的一段时间内让路
+     */
+    public synchronized void yieldFor(long millis) {
+        yieldUntilMillis = Math.max(yieldUntilMillis, System.currentTimeMillis() + millis);
+    }
+
+    public synchronized boolean isYielding() {
+        return interactiveCount > 0 || System.currentTimeMillis() < yieldUntilMillis;
+    }
+
+    /**
+     * 包装请求体，写出时按当前速率申请令牌
+     */
+    public RequestBody wrap(RequestBody body) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                return body.contentLength();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                BufferedSink limited = Okio.buffer(sink(sink));
+                body.writeTo(limited);
+                // 只把数据推给下层，不关闭（下层 sink 由 OkHttp 管理）
+                limited.emit();
+            }
+        };
+    }
+
+    private Sink sink(Sink delegate) {
+        return new ForwardingSink(delegate) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                long remaining = byteCount;
+                while (remaining > 0) {
+                    long n = take(Math.min(remaining, SLICE_BYTES));
+                    super.write(source, n);
+                    remaining -= n;
+                }
+            }
+        };
+    }
+
+    private synchronized long take(long want) throws InterruptedIOException {
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long rate = effectiveRate();
+                if (rate == UNLIMITED) {
+                    lastRefillNanos = now;
+                    tokens = 0;
+                    return want;
+                }
+                double capacity = Math.max(MIN_BURST_BYTES, rate * BURST_SECONDS);
+                tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * rate / 1e9);
+                lastRefillNanos = now;
+                if (tokens >= 1) {
+                    long granted = Math.min(want, (long) tokens);
+                    tokens -= granted;
+                    return granted;
+                }
+                // 等到足够发送一片（速率变化时会被 notifyAll 提前唤醒）
+                long needed = Math.min(want, (long) capacity);
+                long waitNanos = (long) ((needed - tokens) * 1e9 / rate);
+                TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("上传限速等待被中断");
+        }
+    }
+
+    private synchronized long effectiveRate() {
+        if (!isYielding()) {
+            return rateBytesPerSecond;
+        }
+        return rateBytesPerSecond == UNLIMITED
+                ? INTERACTIVE_RATE
+                : Math.min(rateBytesPerSecond, INTERACTIVE_RATE);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.demoapp.upload;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.util.Log;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * 分片压缩 - 对日志、JSON、CSV、源码等可压缩文件按分片做 deflate 压缩
+ * 注册时与服务器协商 Content-Encoding；通过扩展名和抽样判断，已压缩的文件（视频、图片、压缩包）不再压缩
+ */
+public class ChunkCompressor {
+    private static final String TAG = "ChunkCompressor";
+    public static final String ENCODING = "deflate";
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int SAMPLE_COUNT = 3;
+    // 抽样压缩率（压缩后/压缩前）低于该值才启用：按流量计费的网络上更积极
+    private static final double METERED_MAX_RATIO = 0.9;
+    private static final double UNMETERED_MAX_RATIO = 0.5;
+    // 单个分片压缩后没有明显变小时直接发送原始数据
+    private static final double CHUNK_MAX_RATIO = 0.95;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif",
+            "mp4", "mkv", "mov", "avi", "webm", "3gp", "m4v",
+            "mp3", "aac", "m4a", "ogg", "opus", "flac",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "apk", "aab", "jar", "pdf"));
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * 开启/关闭分片压缩协商，默认开启；应用启动时按 BuildConfig.UPLOAD_COMPRESSION 设置
+     */
+    public static void setEnabled(boolean enabled) {
+        ChunkCompressor.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 判断该文件是否值得压缩：排除已压缩格式，再从文件头、中、尾各抽样一段试压缩
+     */
+    public static boolean shouldCompress(Context context, String fileName, ChunkSource source) {
+        if (!enabled || source.size() < SAMPLE_SIZE) {
+            return false;
+        }
+        int dot = fileName.lastIndexOf('.');
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+
+        double maxRatio = isMetered(context) ? METERED_MAX_RATIO : UNMETERED_MAX_RATIO;
+        long size = source.size();
+        long rawBytes = 0;
+        long compressedBytes = 0;
+        try {
+            for (int i = 0; i < SAMPLE_COUNT; i++) {
+                long offset = (size - SAMPLE_SIZE) * i / (SAMPLE_COUNT - 1);
+                byte[] sample = source.readChunk(offset, SAMPLE_SIZE);
+                rawBytes += sample.length;
+                compressedBytes += deflatedSize(sample);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "抽样失败，不压缩", e);
+            return false;
+        }
+        double ratio = (double) compressedBytes / rawBytes;
+        Log.d(TAG, "抽样压缩率: " + String.format(Locale.ROOT, "%.2f", ratio) + " (" + fileName + ")");
+        return ratio < maxRatio;
+    }
+
+    /**
+     * 压缩分片（zlib 格式，对应 Content-Encoding: deflate）；收益不足时返回 null，调用方发送原始数据
+     */
+    public static byte[] compress(byte[] chunk) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(chunk);
+            deflater.finish();
+            int limit = (int) (chunk.length * CHUNK_MAX_RATIO);
+            ByteBuffer out = ByteBuffer.allocate(limit);
+            byte[] buffer = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                if (n > out.remaining()) {
+                    return null;
+                }
+                out.put(buffer, 0, n);
+            }
+            return Arrays.copyOf(out.array(), out.position());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static long deflatedSize(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[16 * 1024];
+            long total = 0;
+            while (!deflater.finished()) {
+                total += deflater.deflate(buffer);
+            }
+            return total;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean isMetered(Context context) {
+        try {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            return cm == null || cm.isActiveNetworkMetered();
+        } catch (Exception e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.demoapp.upload;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分片计划 - 注册时确定每个分片的偏移和长度，允许分片大小不一致
+ * 编码格式为 "长度x数量" 的游程列表，例如 "131072x1,262144x1,524288x30,1024x1"，
+ * 注册时通过 X-Chunk-Plan 发给服务器，并持久化到会话表用于续传
+ */
+public class ChunkPlan {
+    private final long[] offsets;
+    private final int[] lengths;
+    private final long fileSize;
+
+    private ChunkPlan(List<Integer> chunkLengths, long fileSize) {
+        this.offsets = new long[chunkLengths.size()];
+        this.lengths = new int[chunkLengths.size()];
+        this.fileSize = fileSize;
+        long offset = 0;
+        for (int i = 0; i < chunkLengths.size(); i++) {
+            offsets[i] = offset;
+            lengths[i] = chunkLengths.get(i);
+            offset += lengths[i];
+        }
+    }
+
+    /**
+     * 固定大小的分片计划
+     */
+    public static ChunkPlan uniform(long fileSize, int chunkSize) {
+        List<Integer> chunkLengths = new ArrayList<>();
+        for (long offset = 0; offset < fileSize; offset += chunkSize) {
+            chunkLengths.add((int) Math.min(chunkSize, fileSize - offset));
+        }
+        return new ChunkPlan(chunkLengths, fileSize);
+    }
+
+    /**
+     * 自适应分片计划：前几个分片从 1/4 目标大小开始倍增（慢启动），
+     * 这样在未知链路上首批分片不会因过大而超时，之后以目标大小切分
+     */
+    public static ChunkPlan adaptive(long fileSize, int targetChunkSize, int minChunkSize) {
+        List<Integer> chunkLengths = new ArrayList<>();
+        int size = Math.max(minChunkSize, targetChunkSize / 4);
+        long offset = 0;
+        while (offset < fileSize) {
+            int length = (int) Math.min(size, fileSize - offset);
+            chunkLengths.add(length);
+            offset += length;
+            size = Math.min(targetChunkSize, size * 2);
+        }
+        return new ChunkPlan(chunkLengths, fileSize);
+    }
+
+    public int getChunkCount() {
+        return lengths.length;
+    }
+
+    public long getOffset(int chunkIndex) {
+        return offsets[chunkIndex];
+    }
+
+    public int getLength(int chunkIndex) {
+        return lengths[chunkIndex];
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * 最大分片长度（即计划的稳定分片大小）
+     */
+    public int getMaxChunkSize() {
+        int max = 0;
+        for (int length : lengths) {
+            max = Math.max(max, length);
+        }
+        return max;
+    }
+
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < lengths.length) {
+            int j = i;
+            while (j < lengths.length && lengths[j] == lengths[i]) {
+                j++;
+            }
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(lengths[i]).append('x').append(j - i);
+            i = j;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解析编码后的分片计划，与文件大小不符时返回 null
+     */
+    public static ChunkPlan decode(String encoded, long fileSize) {
+        if (encoded == null) {
+            return null;
+        }
+        List<Integer> chunkLengths = new ArrayList<>();
+        long total = 0;
+        try {
+            for (String run : encoded.split(",")) {
+                if (run.isEmpty()) {
+                    continue;
+                }
+                int x = run.indexOf('x');
+                int length = Integer.parseInt(run.substring(0, x));
+                int count = Integer.parseInt(run.substring(x + 1));
+                for (int i = 0; i < count; i++) {
+                    chunkLengths.add(length);
+                }
+                total += (long) length * count;
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+        return total == fileSize ? new ChunkPlan(chunkLengths, fileSize) : null;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.demoapp.upload;
+
+import java.io.IOException;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * 文件区间请求体 - 发送时才从数据源的 (offset, length) 区间读取，
+ * 通过 FileChannel.transferTo 写入 Okio 的 sink（数据进入 Okio 段池后直接写 socket），
+ * 不为每个分片分配 byte[]；重试时重新读取，可重复发送
+ * 分片的 CRC32C 放在请求头中，由调用方在发送前单独读一遍区间计算，这里不再计算
+ */
+public class ChunkRegionBody extends RequestBody {
+    private final ChunkSource source;
+    private final long offset;
+    private final long length;
+    private final MediaType contentType;
+
+    public ChunkRegionBody(ChunkSource source, long offset, long length, MediaType contentType) {
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        this.contentType = contentType;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        source.transferTo(offset, length, sink);
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.demoapp.upload;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 分片数据源 - 通过 FileChannel 按偏移量读取分片
+ * 只有正在上传的分片才会占用内存，峰值内存约为 并发数 × 分片大小
+ */
+public class ChunkSource implements Closeable {
+    private static final String TAG = "ChunkSource";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final ParcelFileDescriptor pfd;
+    private final FileInputStream inputStream;
+    private final FileChannel channel;
+    private final long size;
+    // 源文件的修改时间（毫秒），0 表示未知（如先落盘的管道数据）
+    private final long lastModified;
+    private final File spoolFile;
+
+    private ChunkSource(ParcelFileDescriptor pfd, File spoolFile) throws IOException {
+        this.pfd = pfd;
+        this.inputStream = new FileInputStream(pfd.getFileDescriptor());
+        this.channel = inputStream.getChannel();
+        this.size = channel.size();
+        this.lastModified = spoolFile == null ? modifiedTime(pfd) : 0;
+        this.spoolFile = spoolFile;
+    }
+
+    private static long modifiedTime(ParcelFileDescriptor pfd) {
+        try {
+            return Os.fstat(pfd.getFileDescriptor()).st_mtime * 1000L;
+        } catch (ErrnoException e) {
+            Log.w(TAG, "无法读取修改时间", e);
+            return 0;
+        }
+    }
+
+    /**
+     * 打开 Uri 对应的数据源
+     * 若内容提供者返回的是管道（不可定位），则先顺序写入缓存目录的临时文件
+     */
+    public static ChunkSource open(Context context, Uri uri) throws IOException {
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            throw new FileNotFoundException("无法打开文件: " + uri);
+        }
+        if (pfd.getStatSize() >= 0) {
+            return new ChunkSource(pfd, null);
+        }
+
+        // 管道类数据源不支持按偏移读取，落盘后再读取
+        pfd.close();
+        Log.d(TAG, "数据源不可定位，写入临时文件: " + uri);
+        File spool = File.createTempFile("upload_", ".tmp", context.getCacheDir());
+        InputStream is = context.getContentResolver().openInputStream(uri);
+        if (is == null) {
+            spool.delete();
+            throw new FileNotFoundException("无法打开文件: " + uri);
+        }
+        try (InputStream in = is; FileOutputStream out = new FileOutputStream(spool)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            spool.delete();
+            throw e;
+        }
+        return new ChunkSource(ParcelFileDescriptor.open(spool, ParcelFileDescriptor.MODE_READ_ONLY), spool);
+    }
+
+    /**
+     * 打开本地文件作为数据源
+     */
+    public static ChunkSource open(File file) throws IOException {
+        return new ChunkSource(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY), null);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * 源文件的修改时间（毫秒），未知时返回 0
+     */
+    public long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * 读取指定区间的数据，可被多个线程并发调用（定位读取不修改通道位置）
+     */
+    public byte[] readChunk(long offset, int length) throws IOException {
+        byte[] chunk = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("读取分片越界: offset=" + offset + ", length=" + length);
+            }
+            position += n;
+        }
+        return chunk;
+    }
+
+    /**
+     * 从指定位置读取到调用方提供的缓冲区（可复用），返回读取的字节数，-1 表示已到末尾
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return channel.read(dst, position);
+    }
+
+    /**
+     * 把指定区间直接写入目标通道，不经过调用方的堆数组，可被多个线程并发调用
+     */
+    public void transferTo(long offset, long length, WritableByteChannel target) throws IOException {
+        long position = offset;
+        long remaining = length;
+        while (remaining > 0) {
+            long n = channel.transferTo(position, remaining, target);
+            if (n <= 0) {
+                throw new EOFException("读取分片越界: offset=" + offset + ", length=" + length);
+            }
+            position += n;
+            remaining -= n;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            inputStream.close();
+            pfd.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭数据源错误", e);
+        }
+        if (spoolFile != null && !spoolFile.delete()) {
+            Log.w(TAG, "删除临时文件失败: " + spoolFile);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.demoapp.upload;
+
+import android.util.Log;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 上传接口熔断器 - 连续失败达到阈值后暂停所有上传会话
+ * 打开一段时间后进入半开状态，只放行一个探测请求：成功则关闭，失败则以更长的时间重新打开
+ */
+public class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long INITIAL_OPEN_MILLIS = 5_000;
+    private static final long MAX_OPEN_MILLIS = 60_000;
+    // 半开状态下探测请求尚未返回时，调用方再次检查的间隔
+    private static final long PROBE_RECHECK_MILLIS = 500;
+
+    /** tryAcquirePermission：已放行 */
+    public static final long PERMITTED = 0;
+    /** tryAcquirePermission：已放行，且调用方持有半开状态下唯一的探测名额 */
+    public static final long PERMITTED_PROBE = -1;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public interface Listener {
+        void onStateChanged(State state);
+    }
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openMillis = INITIAL_OPEN_MILLIS;
+    private long openUntil = 0;
+    private boolean probeInFlight = false;
+    private long openCount = 0;
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 申请放行（不阻塞）：打开状态下冷却未结束、半开状态下探测请求尚未返回时不放行
+     * 返回 PERMITTED / PERMITTED_PROBE 表示已放行，否则返回建议的重试等待毫秒数（大于 0），调用方通过定时器稍后再试
+     * 拿到 PERMITTED_PROBE 的调用方如果最终没有发出请求，必须调用 cancelProbe 归还探测名额
+     */
+    public long tryAcquirePermission() {
+        boolean becameHalfOpen = false;
+        long waitMillis = PERMITTED;
+        synchronized (this) {
+            if (state == State.OPEN) {
+                long now = System.currentTimeMillis();
+                if (now < openUntil) {
+                    return openUntil - now;
+                }
+                state = State.HALF_OPEN;
+                becameHalfOpen = true;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probeInFlight) {
+                    waitMillis = PROBE_RECHECK_MILLIS;
+                } else {
+                    probeInFlight = true;
+                    waitMillis = PERMITTED_PROBE;
+                }
+            }
+        }
+        if (becameHalfOpen) {
+            Log.d(TAG, "熔断器半开，发送探测请求");
+            notifyListeners(State.HALF_OPEN);
+        }
+        return waitMillis;
+    }
+
+    public void onSuccess() {
+        boolean closed = false;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                openMillis = INITIAL_OPEN_MILLIS;
+                closed = true;
+            }
+        }
+        if (closed) {
+            Log.d(TAG, "熔断器关闭，恢复上传");
+            notifyListeners(State.CLOSED);
+        }
+    }
+
+    /**
+     * 服务器不可用类失败（网络错误、超时、5xx）
+     */
+    public void onFailure() {
+        long duration = 0;
+        synchronized (this) {
+            consecutiveFailures++;
+            boolean probeFailed = state == State.HALF_OPEN && probeInFlight;
+            probeInFlight = false;
+            if (probeFailed) {
+                openMillis = Math.min(MAX_OPEN_MILLIS, openMillis * 2);
+            } else if (state != State.CLOSED || consecutiveFailures < FAILURE_THRESHOLD) {
+                return;
+            }
+            // 打开时长加抖动，避免所有客户端同时探测
+            duration = openMillis / 2 + ThreadLocalRandom.current().nextLong(openMillis / 2 + 1);
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + duration;
+            openCount++;
+        }
+        Log.w(TAG, "熔断器打开 " + duration + "ms，连续失败: " + consecutiveFailures);
+        notifyListeners(State.OPEN);
+    }
+
+    /**
+     * 持有探测名额的请求没有发出就放弃时归还名额；只能由拿到 PERMITTED_PROBE 的调用方调用
+     */
+    public synchronized void cancelProbe() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * 累计打开次数
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    private void notifyListeners(State newState) {
+        for (Listener listener : listeners) {
+            listener.onStateChanged(newState);
+        }
+    }
+}
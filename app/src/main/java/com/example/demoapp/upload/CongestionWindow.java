@@ -0,0 +1,153 @@
+package com.example.demoapp.upload;
+
+/**
+ * 上传并发窗口（AIMD）- 替代固定数量的 Semaphore
+ * 分片成功且延迟正常时窗口加性增长（每个窗口的分片全部成功约 +1），
+ * 分片失败或延迟明显高于基线时窗口减半，使在途分片数收敛到链路可承受的水平
+ */
+public class CongestionWindow {
+    public static final int MIN_WINDOW = 1;
+    public static final int MAX_WINDOW = 16;
+    public static final int INITIAL_WINDOW = 6;
+
+    private static final double DECREASE_FACTOR = 0.5;
+    // 归一化延迟超过基线的倍数时视为拥塞
+    private static final double LATENCY_THRESHOLD = 2.5;
+    private static final double ALPHA = 0.2;
+
+    public interface Listener {
+        void onWindowChanged(int window);
+    }
+
+    private final Listener listener;
+    private double window = INITIAL_WINDOW;
+    // 窗口上限，默认 MAX_WINDOW，可调低（如基准测试固定并发数）
+    private int limit = MAX_WINDOW;
+    private int inFlight = 0;
+    // 每 MB 的耗时（毫秒），用于比较不同大小的分片
+    private double baseMillisPerMb = -1;
+    private double smoothedLatencyMillis = -1;
+    private long lastDecreaseTime = 0;
+
+    public CongestionWindow(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 获取一个发送名额，窗口已满时返回 false（调用方把任务放回队列，不在这里阻塞）
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) window) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * 分片成功：根据延迟决定增长或收缩
+     */
+    public void onSuccess(long bytes, long latencyMillis) {
+        int oldWindow;
+        int newWindow;
+        synchronized (this) {
+            oldWindow = (int) window;
+            inFlight--;
+            smoothedLatencyMillis = smoothedLatencyMillis < 0
+                    ? latencyMillis : ALPHA * latencyMillis + (1 - ALPHA) * smoothedLatencyMillis;
+
+            double millisPerMb = bytes > 0 ? latencyMillis * 1024.0 * 1024.0 / bytes : -1;
+            if (millisPerMb > 0 && (baseMillisPerMb < 0 || millisPerMb < baseMillisPerMb)) {
+                baseMillisPerMb = millisPerMb;
+            }
+
+            if (millisPerMb > baseMillisPerMb * LATENCY_THRESHOLD) {
+                decrease();
+            } else {
+                window = Math.min(limit, window + 1.0 / window);
+            }
+            newWindow = (int) window;
+            notifyAll();
+        }
+        if (newWindow != oldWindow && listener != null) {
+            listener.onWindowChanged(newWindow);
+        }
+    }
+
+    /**
+     * 分片失败（超时、网络错误、服务器错误）：窗口减半
+     */
+    public void onFailure() {
+        int oldWindow;
+        int newWindow;
+        synchronized (this) {
+            oldWindow = (int) window;
+            inFlight--;
+            decrease();
+            newWindow = (int) window;
+            notifyAll();
+        }
+        if (newWindow != oldWindow && listener != null) {
+            listener.onWindowChanged(newWindow);
+        }
+    }
+
+    /**
+     * 释放名额但不计入拥塞反馈（如任务被跳过）
+     */
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * 设置窗口上限（MIN_WINDOW ~ MAX_WINDOW），当前窗口超过上限时立即收缩
+     */
+    public void setLimit(int newLimit) {
+        int oldWindow;
+        int newWindow;
+        synchronized (this) {
+            oldWindow = (int) window;
+            limit = Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, newLimit));
+            window = Math.min(window, limit);
+            newWindow = (int) window;
+            notifyAll();
+        }
+        if (newWindow != oldWindow && listener != null) {
+            listener.onWindowChanged(newWindow);
+        }
+    }
+
+    /**
+     * 恢复初始状态（窗口、延迟基线）
+     */
+    public synchronized void reset() {
+        window = Math.min(INITIAL_WINDOW, limit);
+        baseMillisPerMb = -1;
+        smoothedLatencyMillis = -1;
+        lastDecreaseTime = 0;
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getWindow() {
+        return (int) window;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    // 同一拥塞事件内的多个信号只收缩一次：距上次收缩不足一个平滑延迟时忽略
+    private void decrease() {
+        long now = System.currentTimeMillis();
+        if (now - lastDecreaseTime < smoothedLatencyMillis) {
+            return;
+        }
+        lastDecreaseTime = now;
+        window = Math.max(MIN_WINDOW, window * DECREASE_FACTOR);
+    }
+}
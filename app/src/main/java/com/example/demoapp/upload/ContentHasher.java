@@ -0,0 +1,112 @@
+package com.example.demoapp.upload;
+
+import android.util.Log;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 文件内容哈希（SHA-256）- 用于秒传：注册时携带哈希，服务器已有相同内容则跳过上传
+ * 流式读取，只占用一个固定大小的缓冲区；哈希耗时超过预计上传耗时时放弃
+ */
+public class ContentHasher {
+    private static final String TAG = "ContentHasher";
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // 没有测量数据时假设的哈希速度（较保守的中低端机型存储读取 + SHA-256）
+    private static final double DEFAULT_HASH_BYTES_PER_SECOND = 50.0 * 1024 * 1024;
+    // 没有吞吐量数据时假设的上传速度
+    private static final double DEFAULT_UPLOAD_BYTES_PER_SECOND = 1024.0 * 1024;
+    // 小于此大小的文件直接上传，秒传节省的时间不足一次注册往返
+    private static final long MIN_HASH_FILE_SIZE = 256 * 1024;
+    private static final double ALPHA = 0.3;
+
+    private static double hashBytesPerSecond = -1;
+
+    /**
+     * 预计哈希耗时不超过预计上传耗时时才计算哈希
+     */
+    public static boolean shouldHash(long fileSize, ThroughputEstimator estimator) {
+        if (fileSize < MIN_HASH_FILE_SIZE) {
+            return false;
+        }
+        return estimateHashMillis(fileSize) < estimateUploadMillis(fileSize, estimator);
+    }
+
+    /**
+     * 预计上传耗时（毫秒），作为哈希的时间预算；按上传管理器使用的吞吐量估计计算
+     */
+    public static long estimateUploadMillis(long fileSize, ThroughputEstimator estimator) {
+        double uploadRate = estimator.getBytesPerSecond();
+        if (uploadRate <= 0) {
+            uploadRate = DEFAULT_UPLOAD_BYTES_PER_SECOND;
+        }
+        return (long) (fileSize * 1000.0 / uploadRate);
+    }
+
+    public static synchronized long estimateHashMillis(long fileSize) {
+        double rate = hashBytesPerSecond > 0 ? hashBytesPerSecond : DEFAULT_HASH_BYTES_PER_SECOND;
+        return (long) (fileSize * 1000.0 / rate);
+    }
+
+    public static synchronized double getHashBytesPerSecond() {
+        return hashBytesPerSecond;
+    }
+
+    /**
+     * 流式计算 SHA-256（十六进制小写），超过 budgetMillis 时中止并返回 null
+     */
+    public static String sha256(ChunkSource source, long budgetMillis) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(TAG, "不支持 SHA-256", e);
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long size = source.size();
+        long position = 0;
+        long startTime = System.currentTimeMillis();
+        while (position < size) {
+            buffer.clear();
+            int n = source.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += n;
+
+            long elapsed = System.currentTimeMillis() - startTime;
+            if (elapsed > budgetMillis) {
+                recordRate(position, elapsed);
+                Log.d(TAG, "哈希超出预算，放弃秒传: 已读 " + position + "/" + size + ", 耗时 " + elapsed + "ms");
+                return null;
+            }
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        recordRate(position, elapsed);
+        Log.d(TAG, "哈希完成: 大小 " + size + ", 耗时 " + elapsed + "ms, 速度 "
+                + String.format("%.1f", position / 1024.0 / 1024.0 * 1000.0 / Math.max(elapsed, 1)) + "MB/s");
+        return toHex(digest.digest());
+    }
+
+    private static synchronized void recordRate(long bytes, long elapsedMillis) {
+        if (bytes <= 0 || elapsedMillis <= 0) {
+            return;
+        }
+        double sample = bytes * 1000.0 / elapsedMillis;
+        hashBytesPerSecond = hashBytesPerSecond < 0 ? sample : ALPHA * sample + (1 - ALPHA) * hashBytesPerSecond;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.demoapp.upload;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C（Castagnoli）校验 - 分片完整性校验
+ * minSdk 24 上没有 java.util.zip.CRC32C，这里用查表法实现，直接在分片缓冲区上增量计算，不额外拷贝
+ */
+public class Crc32c implements Checksum {
+    private static final int POLY = 0x82F63B78;
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // 每个上传线程复用一个读缓冲区，计算校验和不再为每个分片分配数组
+    private static final ThreadLocal<byte[]> READ_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[READ_BUFFER_SIZE];
+        }
+    };
+
+    private int crc = 0xFFFFFFFF;
+
+    /**
+     * 计算整个缓冲区区间的 CRC32C
+     */
+    public static long of(byte[] b, int off, int len) {
+        Crc32c checksum = new Crc32c();
+        checksum.update(b, off, len);
+        return checksum.getValue();
+    }
+
+    /**
+     * 直接从数据源的指定区间流式计算 CRC32C
+     */
+    public static long of(ChunkSource source, long offset, long length) throws IOException {
+        Crc32c checksum = new Crc32c();
+        byte[] array = READ_BUFFER.get();
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        long position = offset;
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(array.length, remaining));
+            int n = source.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("读取分片越界: offset=" + offset + ", length=" + length);
+            }
+            checksum.update(array, 0, n);
+            position += n;
+            remaining -= n;
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * 十六进制格式（8 位，小写），用于请求头
+     */
+    public static String toHex(long value) {
+        return String.format("%08x", value);
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            c = (c >>> 8) ^ TABLE[(c ^ b[i]) & 0xFF];
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,697 @@
+package com.example.demoapp.upload;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 下载磁盘缓存 - 以完整 URL 为键的 LRU 文件缓存，总大小有上限
+ * 新鲜度按响应的 Cache-Control（no-store / no-cache / max-age）、Age、Expires 计算，都没有时按 Last-Modified 启发式估计；
+ * 过期条目用 If-None-Match / If-Modified-Since 条件请求重新验证，304 时直接复用缓存文件
+ */
+public class DownloadCache {
+    private static final String TAG = "DownloadCache";
+    private static final DownloadCache INSTANCE = new DownloadCache();
+
+    private static final String CACHE_DIR = "download_cache";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TMP_SUFFIX = ".tmp";
+    public static final long DEFAULT_MAX_SIZE = 200 * 1024 * 1024;
+    // 单个条目不超过总容量的 1/8，避免一个大文件挤掉整个缓存
+    private static final int MAX_ENTRY_FRACTION = 8;
+    // 启发式新鲜期：距上次修改时间的 10%，最多一天
+    private static final double HEURISTIC_FRACTION = 0.1;
+    private static final long MAX_HEURISTIC_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 从响应头提取的缓存相关信息，新鲜期在收到响应时换算为本地过期时间
+     */
+    public static class CacheHeaders {
+        String etag;
+        String lastModified;
+        String contentType;
+        long contentLength = -1;
+        long expiresAt;
+        boolean noStore;
+
+        public static CacheHeaders from(HttpURLConnection conn) {
+            CacheHeaders headers = new CacheHeaders();
+            long now = System.currentTimeMillis();
+            headers.etag = conn.getHeaderField("ETag");
+            headers.lastModified = conn.getHeaderField("Last-Modified");
+            headers.contentType = conn.getHeaderField("Content-Type");
+            String contentLength = conn.getHeaderField("Content-Length");
+            if (contentLength != null) {
+                try {
+                    headers.contentLength = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException ignored) {
+                }
+            }
+
+            long maxAgeSeconds = -1;
+            boolean noCache = false;
+            String cacheControl = conn.getHeaderField("Cache-Control");
+            if (cacheControl != null) {
+                for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                    directive = directive.trim();
+                    if (directive.equals("no-store")) {
+                        headers.noStore = true;
+                    } else if (directive.equals("no-cache")) {
+                        noCache = true;
+                    } else if (directive.startsWith("max-age=")) {
+                        try {
+                            maxAgeSeconds = Long.parseLong(directive.substring(8).trim());
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                }
+            }
+
+            long date = conn.getDate() > 0 ? conn.getDate() : now;
+            if (noCache) {
+                // 可以存，但每次使用前都要重新验证
+                headers.expiresAt = 0;
+            } else if (maxAgeSeconds >= 0) {
+                long age = 0;
+                String ageHeader = conn.getHeaderField("Age");
+                if (ageHeader != null) {
+                    try {
+                        age = Long.parseLong(ageHeader.trim()) * 1000;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                headers.expiresAt = now + maxAgeSeconds * 1000 - age;
+            } else if (conn.getHeaderField("Expires") != null) {
+                // 无法解析的 Expires（如 "0"）视为已过期
+                long expires = conn.getHeaderFieldDate("Expires", 0);
+                headers.expiresAt = expires > 0 ? now + (expires - date) : 0;
+            } else {
+                long lastModified = conn.getHeaderFieldDate("Last-Modified", 0);
+                headers.expiresAt = lastModified > 0 && lastModified < date
+                        ? now + Math.min((long) ((date - lastModified) * HEURISTIC_FRACTION), MAX_HEURISTIC_MILLIS)
+                        : 0;
+            }
+            return headers;
+        }
+
+        /**
+         * 既没有新鲜期也没有校验值的响应存了也无法复用
+         */
+        boolean isReusable() {
+            return expiresAt > System.currentTimeMillis() || etag != null || lastModified != null;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    private static class Entry {
+        final String key;
+        final String url;
+        String etag;
+        String lastModified;
+        String contentType;
+        long size;
+        long expiresAt;
+
+        Entry(String key, String url) {
+            this.key = key;
+            this.url = url;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        void applyHeaders(CacheHeaders headers) {
+            // 304 可能不带全部校验字段，只覆盖响应中出现的
+            if (headers.etag != null) {
+                etag = headers.etag;
+            }
+            if (headers.lastModified != null) {
+                lastModified = headers.lastModified;
+            }
+            if (headers.contentType != null) {
+                contentType = headers.contentType;
+            }
+            expiresAt = headers.expiresAt;
+        }
+    }
+
+    /**
+     * 写入缓存的输出流：先写临时文件，commit 时校验长度后替换为正式条目；超出单条目上限时静默放弃
+     */
+    public class Writer extends OutputStream {
+        private final String url;
+        private final CacheHeaders headers;
+        private final File tmpFile;
+        private FileOutputStream out;
+        private long written;
+        private boolean abandoned;
+
+        Writer(String url, CacheHeaders headers, File tmpFile) throws IOException {
+            this.url = url;
+            this.headers = headers;
+            this.tmpFile = tmpFile;
+            this.out = new FileOutputStream(tmpFile);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (abandoned) {
+                return;
+            }
+            try {
+                if (written + len > getMaxEntrySize()) {
+                    Log.d(TAG, "超过单条目上限，不缓存: " + url);
+                    abort();
+                    return;
+                }
+                out.write(b, off, len);
+                written += len;
+            } catch (IOException e) {
+                // 缓存写入失败不影响下载本身
+                Log.e(TAG, "写入缓存失败", e);
+                abort();
+            }
+        }
+
+        /**
+         * 响应体完整写入后调用；长度与 Content-Length 不一致时丢弃
+         */
+        public File commit() {
+            if (abandoned) {
+                return null;
+            }
+            try {
+                out.getFD().sync();
+                out.close();
+                out = null;
+                if (headers.contentLength >= 0 && written != headers.contentLength) {
+                    throw new IOException("长度不一致: " + written + "/" + headers.contentLength);
+                }
+                return DownloadCache.this.commit(url, headers, tmpFile, written);
+            } catch (IOException e) {
+                Log.e(TAG, "提交缓存失败", e);
+                abort();
+                return null;
+            }
+        }
+
+        public void abort() {
+            abandoned = true;
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+                out = null;
+            }
+            tmpFile.delete();
+        }
+
+        @Override
+        public void close() {
+            if (!abandoned && out != null) {
+                // 未 commit 就关闭视为不完整
+                abort();
+            }
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private File dir;
+    private boolean loaded = false;
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private long currentSize = 0;
+
+    public static DownloadCache getInstance() {
+        return INSTANCE;
+    }
+
+    private DownloadCache() {
+    }
+
+    /**
+     * 使用应用缓存目录，索引在第一次使用时从磁盘加载
+     */
+    public synchronized void initialize(Context context) {
+        if (dir == null) {
+            dir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return dir != null;
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        if (ensureLoaded()) {
+            trimToSize(null);
+        }
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return ensureLoaded() ? currentSize : 0;
+    }
+
+    public synchronized long getMaxEntrySize() {
+        return maxSize / MAX_ENTRY_FRACTION;
+    }
+
+    /**
+     * 缓存条目的内容类型（没有条目时返回 null）
+     */
+    public synchronized String getContentType(String url) {
+        if (!ensureLoaded()) {
+            return null;
+        }
+        Entry entry = entries.get(keyOf(url));
+        return entry != null ? entry.contentType : null;
+    }
+
+    /**
+     * 返回可直接使用的缓存文件：新鲜则直接返回，过期则条件请求重新验证（304 复用），
+     * 内容已变化时把本次 200 响应体写入缓存并返回新文件（不可缓存时返回 null）；没有缓存时返回 null
+     */
+    public File getCachedFile(String url) {
+        Entry entry;
+        synchronized (this) {
+            if (!ensureLoaded()) {
+                return null;
+            }
+            entry = entries.get(keyOf(url));
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isFresh()) {
+                return touch(entry);
+            }
+        }
+        return revalidate(entry);
+    }
+
+    /**
+     * 获取 URL 对应的缓存文件：缓存可用时直接返回；未命中时返回 null，调用方直接流式使用网络地址，
+     * 同时在下载调度器中以 PREFETCH 优先级把响应下载到缓存（不可缓存或大于 maxBytes 时放弃），下次直接命中
+     */
+    public File fetchFile(String url, long maxBytes) {
+        File cached = getCachedFile(url);
+        if (cached != null || !isEnabled()) {
+            return cached;
+        }
+        DownloadScheduler.getInstance().submit("cache:" + url, DownloadScheduler.Priority.PREFETCH,
+                progress -> fill(url, maxBytes), new DownloadScheduler.Listener<File>() {
+                    @Override
+                    public void onProgress(long downloaded, long total) {
+                    }
+
+                    @Override
+                    public void onSuccess(File file) {
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        Log.w(TAG, "后台缓存失败: " + url + ", " + error);
+                    }
+                });
+        return null;
+    }
+
+    private File fill(String url, long maxBytes) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            conn.setConnectTimeout(30000);
+            conn.setReadTimeout(30000);
+            int responseCode = conn.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP 错误: " + responseCode);
+            }
+            CacheHeaders headers = CacheHeaders.from(conn);
+            if (headers.contentLength < 0 || headers.contentLength > maxBytes) {
+                Log.d(TAG, "大小未知或超过 " + maxBytes + "，不缓存: " + url);
+                return null;
+            }
+            return writeBody(conn, openWriter(url, headers));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * 把响应体写入缓存并提交；writer 为 null 或中途放弃（超过单条目上限）时不再读取剩余内容，返回 null
+     */
+    private File writeBody(HttpURLConnection conn, Writer writer) throws IOException {
+        if (writer == null) {
+            return null;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = conn.getInputStream()) {
+            int n;
+            while (!writer.abandoned && (n = in.read(buffer)) != -1) {
+                writer.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+        return writer.commit();
+    }
+
+    /**
+     * 为一次 200 响应打开缓存写入流；响应不可缓存（no-store、过大、无法复用）或缓存未启用时返回 null
+     */
+    public Writer openWriter(String url, CacheHeaders headers) {
+        File tmpFile;
+        synchronized (this) {
+            if (!ensureLoaded() || headers == null) {
+                return null;
+            }
+            if (headers.noStore || !headers.isReusable()) {
+                // 旧内容也不应再使用
+                remove(url);
+                return null;
+            }
+            if (headers.contentLength > getMaxEntrySize()) {
+                return null;
+            }
+            tmpFile = new File(dir, keyOf(url) + "." + System.nanoTime() + TMP_SUFFIX);
+        }
+        try {
+            return new Writer(url, headers, tmpFile);
+        } catch (IOException e) {
+            Log.e(TAG, "创建缓存文件失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 把已下载完成的文件复制进缓存
+     */
+    public void put(String url, File source, CacheHeaders headers) {
+        Writer writer = openWriter(url, headers);
+        if (writer == null) {
+            return;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(source)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                writer.write(buffer, 0, n);
+            }
+            writer.commit();
+        } catch (IOException e) {
+            Log.e(TAG, "写入缓存失败", e);
+            writer.abort();
+        }
+    }
+
+    public synchronized void remove(String url) {
+        if (!ensureLoaded()) {
+            return;
+        }
+        Entry entry = entries.remove(keyOf(url));
+        if (entry != null) {
+            currentSize -= entry.size;
+            deleteEntry(entry);
+        }
+    }
+
+    public synchronized void clear() {
+        if (!ensureLoaded()) {
+            return;
+        }
+        for (Entry entry : entries.values()) {
+            deleteEntry(entry);
+        }
+        entries.clear();
+        currentSize = 0;
+    }
+
+    /**
+     * 条件请求重新验证：304 更新新鲜期后复用，其他响应说明缓存不可用（内容变化时删除旧条目）
+     */
+    private File revalidate(Entry entry) {
+        if (entry.etag == null && entry.lastModified == null) {
+            return null;
+        }
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(entry.url).openConnection();
+            conn.setConnectTimeout(10000);
+            conn.setReadTimeout(10000);
+            if (entry.etag != null) {
+                conn.setRequestProperty("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", entry.lastModified);
+            }
+            int responseCode = conn.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                CacheHeaders headers = CacheHeaders.from(conn);
+                synchronized (this) {
+                    if (entries.get(entry.key) != entry) {
+                        return null;
+                    }
+                    entry.applyHeaders(headers);
+                    writeMeta(entry);
+                    Log.d(TAG, "重新验证通过: " + entry.url);
+                    return touch(entry);
+                }
+            }
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                Log.d(TAG, "内容已变化: " + entry.url);
+                synchronized (this) {
+                    if (entries.get(entry.key) == entry) {
+                        entries.remove(entry.key);
+                        currentSize -= entry.size;
+                        deleteEntry(entry);
+                    }
+                }
+                // 新内容已经在这次响应里，直接写入缓存，调用方不必再下载一次
+                return writeBody(conn, openWriter(entry.url, CacheHeaders.from(conn)));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "重新验证失败", e);
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+        return null;
+    }
+
+    private synchronized File commit(String url, CacheHeaders headers, File tmpFile, long size) throws IOException {
+        if (!ensureLoaded()) {
+            tmpFile.delete();
+            return null;
+        }
+        String key = keyOf(url);
+        Entry old = entries.remove(key);
+        if (old != null) {
+            currentSize -= old.size;
+        }
+        Entry entry = new Entry(key, url);
+        entry.applyHeaders(headers);
+        entry.size = size;
+        File body = bodyFile(key);
+        if (!tmpFile.renameTo(body)) {
+            tmpFile.delete();
+            if (old != null) {
+                deleteEntry(old);
+            }
+            throw new IOException("重命名失败: " + tmpFile);
+        }
+        writeMeta(entry);
+        entries.put(key, entry);
+        currentSize += size;
+        trimToSize(entry);
+        Log.d(TAG, "已缓存: " + url + "（" + size + " 字节，总计 " + currentSize + "/" + maxSize + "）");
+        return body;
+    }
+
+    // 调用方持有 this
+    private File touch(Entry entry) {
+        File body = bodyFile(entry.key);
+        // 文件修改时间作为跨进程保留的访问顺序
+        body.setLastModified(System.currentTimeMillis());
+        return body;
+    }
+
+    // 调用方持有 this；按访问顺序淘汰，keep 为刚写入的条目
+    private void trimToSize(Entry keep) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (currentSize > maxSize && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            if (eldest == keep) {
+                continue;
+            }
+            it.remove();
+            currentSize -= eldest.size;
+            deleteEntry(eldest);
+            Log.d(TAG, "淘汰: " + eldest.url);
+        }
+    }
+
+    // 调用方持有 this；条目被淘汰时正在读取的流不受影响
+    private void deleteEntry(Entry entry) {
+        bodyFile(entry.key).delete();
+        new File(dir, entry.key + META_SUFFIX).delete();
+    }
+
+    /**
+     * 第一次使用时扫描缓存目录（调用方持有 this）：读取元数据，删除残留的临时文件和不完整的条目，
+     * 按文件修改时间恢复访问顺序
+     */
+    private boolean ensureLoaded() {
+        if (dir == null) {
+            return false;
+        }
+        if (loaded) {
+            return true;
+        }
+        loaded = true;
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "无法创建缓存目录: " + dir);
+            return true;
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return true;
+        }
+        List<Entry> loadedEntries = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX)) {
+                file.delete();
+            } else if (name.endsWith(META_SUFFIX)) {
+                String key = name.substring(0, name.length() - META_SUFFIX.length());
+                Entry entry = readMeta(key, file);
+                if (entry == null) {
+                    file.delete();
+                    bodyFile(key).delete();
+                } else {
+                    loadedEntries.add(entry);
+                }
+            } else if (name.endsWith(BODY_SUFFIX)) {
+                String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+                if (!new File(dir, key + META_SUFFIX).exists()) {
+                    file.delete();
+                }
+            }
+        }
+        Collections.sort(loadedEntries,
+                (a, b) -> Long.compare(bodyFile(a.key).lastModified(), bodyFile(b.key).lastModified()));
+        for (Entry entry : loadedEntries) {
+            entries.put(entry.key, entry);
+            currentSize += entry.size;
+        }
+        trimToSize(null);
+        Log.d(TAG, "缓存加载完成: " + entries.size() + " 个条目，" + currentSize + " 字节");
+        return true;
+    }
+
+    private Entry readMeta(String key, File metaFile) {
+        try (InputStream in = new FileInputStream(metaFile)) {
+            byte[] data = new byte[(int) metaFile.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n == -1) {
+                    break;
+                }
+                read += n;
+            }
+            JSONObject json = new JSONObject(new String(data, 0, read, StandardCharsets.UTF_8));
+            Entry entry = new Entry(key, json.getString("url"));
+            entry.etag = json.has("etag") ? json.getString("etag") : null;
+            entry.lastModified = json.has("last_modified") ? json.getString("last_modified") : null;
+            entry.contentType = json.has("content_type") ? json.getString("content_type") : null;
+            entry.size = json.getLong("size");
+            entry.expiresAt = json.getLong("expires_at");
+            // 文件被截断或替换过的条目不可信
+            if (!key.equals(keyOf(entry.url)) || bodyFile(key).length() != entry.size) {
+                return null;
+            }
+            return entry;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "缓存元数据损坏: " + metaFile.getName());
+            return null;
+        }
+    }
+
+    // 调用方持有 this；先写临时文件再重命名，避免进程被杀留下半个元数据文件
+    private void writeMeta(Entry entry) {
+        File metaFile = new File(dir, entry.key + META_SUFFIX);
+        File tmpFile = new File(dir, entry.key + META_SUFFIX + TMP_SUFFIX);
+        try {
+            JSONObject json = new JSONObject();
+            json.put("url", entry.url);
+            json.put("etag", entry.etag);
+            json.put("last_modified", entry.lastModified);
+            json.put("content_type", entry.contentType);
+            json.put("size", entry.size);
+            json.put("expires_at", entry.expiresAt);
+            try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+                out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            if (!tmpFile.renameTo(metaFile)) {
+                throw new IOException("重命名失败: " + tmpFile);
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "写入缓存元数据失败", e);
+            tmpFile.delete();
+        }
+    }
+
+    private File bodyFile(String key) {
+        return new File(dir, key + BODY_SUFFIX);
+    }
+
+    private static String keyOf(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format(Locale.US, "%02x", hash[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
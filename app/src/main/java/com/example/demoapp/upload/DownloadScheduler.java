@@ -0,0 +1,190 @@
+package com.example.demoapp.upload;
+
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 进程级下载调度器 - 固定数量的工作线程，按优先级取任务（界面正在显示的内容先于预取）
+ * 相同 key 的请求合并为一次传输：后到的请求挂到进行中的任务上，共享进度和结果；
+ * 排队中的任务被更高优先级的请求合并时会提升优先级
+ */
+public class DownloadScheduler {
+    private static final String TAG = "DownloadScheduler";
+    // 同时进行的下载数，分段下载的线程池按它确定上限
+    static final int WORKER_COUNT = 4;
+
+    public enum Priority {
+        /** 界面上正在显示、用户在等待的内容 */
+        VISIBLE,
+        /** 用户主动发起的普通下载 */
+        NORMAL,
+        /** 预取，没有其他下载时才进行 */
+        PREFETCH
+    }
+
+    public interface ProgressListener {
+        void onProgress(long downloaded, long total);
+    }
+
+    /**
+     * 在工作线程中执行的下载任务
+     */
+    public interface Task<T> {
+        T run(ProgressListener progress) throws Exception;
+    }
+
+    public interface Listener<T> {
+        void onProgress(long downloaded, long total);
+        void onSuccess(T result);
+        void onError(String error);
+    }
+
+    private static final DownloadScheduler INSTANCE = new DownloadScheduler();
+
+    private final List<ArrayDeque<Job<?>>> queues = new ArrayList<>();
+    // 排队中和进行中的可合并任务
+    private final Map<String, Job<?>> jobsByKey = new HashMap<>();
+
+    public static DownloadScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    private DownloadScheduler() {
+        for (int i = 0; i < Priority.values().length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        for (int i = 1; i <= WORKER_COUNT; i++) {
+            Thread worker = new Thread(this::workerLoop, "download-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * 提交下载任务；key 相同的任务尚未完成时不再执行新任务，而是把 listener 加到已有任务上
+     * @param key 合并用的资源标识，同一 key 的结果类型必须一致；null 表示不合并
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> void submit(String key, Priority priority, Task<T> task, Listener<T> listener) {
+        if (key != null) {
+            Job<T> existing = (Job<T>) jobsByKey.get(key);
+            if (existing != null) {
+                existing.listeners.add(listener);
+                if (!existing.started && priority.ordinal() < existing.priority.ordinal()) {
+                    queues.get(existing.priority.ordinal()).remove(existing);
+                    existing.priority = priority;
+                    queues.get(priority.ordinal()).addLast(existing);
+                }
+                Log.d(TAG, "合并到进行中的下载: " + key + "（" + existing.listeners.size() + " 个请求）");
+                return;
+            }
+        }
+        Job<T> job = new Job<>(key, priority, task);
+        job.listeners.add(listener);
+        if (key != null) {
+            jobsByKey.put(key, job);
+        }
+        queues.get(priority.ordinal()).addLast(job);
+        notifyAll();
+    }
+
+    /**
+     * 排队中（尚未开始）的任务数
+     */
+    public synchronized int getQueuedCount() {
+        int count = 0;
+        for (ArrayDeque<Job<?>> queue : queues) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    private void workerLoop() {
+        while (true) {
+            Job<?> job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            job.run();
+        }
+    }
+
+    private synchronized Job<?> take() throws InterruptedException {
+        while (true) {
+            for (ArrayDeque<Job<?>> queue : queues) {
+                Job<?> job = queue.pollFirst();
+                if (job != null) {
+                    job.started = true;
+                    return job;
+                }
+            }
+            wait();
+        }
+    }
+
+    // 完成后立即移除，之后的同 key 请求发起新传输（通常会命中 DownloadCache）
+    private synchronized void finish(Job<?> job) {
+        if (job.key != null && jobsByKey.get(job.key) == job) {
+            jobsByKey.remove(job.key);
+        }
+    }
+
+    private class Job<T> implements ProgressListener {
+        final String key;
+        final Task<T> task;
+        final CopyOnWriteArrayList<Listener<T>> listeners = new CopyOnWriteArrayList<>();
+        // 以下字段由 DownloadScheduler.this 保护
+        Priority priority;
+        boolean started = false;
+
+        Job(String key, Priority priority, Task<T> task) {
+            this.key = key;
+            this.priority = priority;
+            this.task = task;
+        }
+
+        void run() {
+            T result = null;
+            Exception failure = null;
+            try {
+                result = task.run(this);
+            } catch (Exception e) {
+                failure = e;
+            } catch (Throwable t) {
+                Log.e(TAG, "下载任务异常", t);
+                failure = new Exception(t.toString(), t);
+            }
+            finish(this);
+            // 已从 jobsByKey 移除，listeners 不会再增加
+            for (Listener<T> listener : listeners) {
+                try {
+                    if (failure == null) {
+                        listener.onSuccess(result);
+                    } else {
+                        listener.onError(failure.getMessage());
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "下载回调异常", e);
+                }
+            }
+        }
+
+        @Override
+        public void onProgress(long downloaded, long total) {
+            for (Listener<T> listener : listeners) {
+                try {
+                    listener.onProgress(downloaded, total);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "下载回调异常", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.demoapp.upload;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 下载续传状态 - 记录 .part 文件中已同步到磁盘的字节区间，以及首次响应的 ETag/Last-Modified，
+ * 用于失败重试或进程重启后通过 Range + If-Range 续传
+ */
+public class DownloadStateRecord {
+    private String targetPath;
+    private String url;
+    private String etag;
+    private String lastModified;
+    private long totalSize = -1;
+    private String contentType;
+    // 已完成区间 [start, end)，按起点排序且互不相邻
+    private final List<long[]> ranges = new ArrayList<>();
+    private long updatedAt;
+
+    public DownloadStateRecord(String targetPath, String url) {
+        this.targetPath = targetPath;
+        this.url = url;
+        this.updatedAt = System.currentTimeMillis();
+    }
+
+    public String getTargetPath() { return targetPath; }
+
+    public String getUrl() { return url; }
+
+    public String getEtag() { return etag; }
+    public void setEtag(String etag) { this.etag = etag; }
+
+    public String getLastModified() { return lastModified; }
+    public void setLastModified(String lastModified) { this.lastModified = lastModified; }
+
+    public long getTotalSize() { return totalSize; }
+    public void setTotalSize(long totalSize) { this.totalSize = totalSize; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public long getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+
+    /**
+     * If-Range 使用的校验值：优先强 ETag（弱 ETag 不能用于 If-Range），其次 Last-Modified，都没有时返回 null（不可续传）
+     */
+    public String getValidator() {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
+    }
+
+    /**
+     * 响应中的 ETag/Last-Modified 是否与记录一致；响应没有带的字段不参与比较
+     */
+    public boolean matches(String responseEtag, String responseLastModified) {
+        if (etag != null && responseEtag != null && !etag.equals(responseEtag)) {
+            return false;
+        }
+        return lastModified == null || responseLastModified == null || lastModified.equals(responseLastModified);
+    }
+
+    /**
+     * 记录 [start, end) 已写入并同步到磁盘，与相邻或重叠的区间合并
+     */
+    public synchronized void addRange(long start, long end) {
+        if (end <= start) {
+            return;
+        }
+        int i = 0;
+        while (i < ranges.size() && ranges.get(i)[1] < start) {
+            i++;
+        }
+        while (i < ranges.size() && ranges.get(i)[0] <= end) {
+            long[] merged = ranges.remove(i);
+            start = Math.min(start, merged[0]);
+            end = Math.max(end, merged[1]);
+        }
+        ranges.add(i, new long[]{start, end});
+        updatedAt = System.currentTimeMillis();
+    }
+
+    public synchronized void clearRanges() {
+        ranges.clear();
+        updatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 从 0 开始的连续已完成字节数（单连接续传的起点）
+     */
+    public synchronized long getCompletedPrefix() {
+        return !ranges.isEmpty() && ranges.get(0)[0] == 0 ? ranges.get(0)[1] : 0;
+    }
+
+    public synchronized long getCompletedBytes() {
+        long bytes = 0;
+        for (long[] range : ranges) {
+            bytes += range[1] - range[0];
+        }
+        return bytes;
+    }
+
+    /**
+     * [0, size) 中尚未完成的区间 [start, end)
+     */
+    public synchronized List<long[]> getMissingRanges(long size) {
+        List<long[]> missing = new ArrayList<>();
+        long position = 0;
+        for (long[] range : ranges) {
+            if (range[0] >= size) {
+                break;
+            }
+            if (range[0] > position) {
+                missing.add(new long[]{position, range[0]});
+            }
+            position = Math.max(position, range[1]);
+        }
+        if (position < size) {
+            missing.add(new long[]{position, size});
+        }
+        return missing;
+    }
+
+    /**
+     * 只保留不超过 length 的部分（.part 文件比记录短时，超出部分不可信）
+     */
+    public synchronized void truncateTo(long length) {
+        for (int i = ranges.size() - 1; i >= 0; i--) {
+            long[] range = ranges.get(i);
+            if (range[0] >= length) {
+                ranges.remove(i);
+            } else if (range[1] > length) {
+                range[1] = length;
+            }
+        }
+    }
+
+    /**
+     * 序列化为 "start-end,start-end"
+     */
+    public synchronized String encodeRanges() {
+        StringBuilder sb = new StringBuilder();
+        for (long[] range : ranges) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(range[0]).append('-').append(range[1]);
+        }
+        return sb.toString();
+    }
+
+    public synchronized void decodeRanges(String encoded) {
+        ranges.clear();
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String part : encoded.split(",")) {
+            int dash = part.indexOf('-');
+            if (dash > 0) {
+                addRange(Long.parseLong(part.substring(0, dash)), Long.parseLong(part.substring(dash + 1)));
+            }
+        }
+    }
+}
@@ -1,14 +1,27 @@
 package com.example.demoapp.upload;
 
 import android.util.Log;
-import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 文件下载管理器 - 完全对齐服务器端 UploadFileRoute 逻辑
@@ -17,11 +30,60 @@ import java.util.Map;
  * 2. Range 请求（断点续传/流媒体播放）
  * 3. 响应头处理（Content-Type, Accept-Ranges, Cache-Control, Content-Range）
  * 4. 206 Partial Content 响应
+ * 5. 流式下载到文件/输出流（不把整个文件放进内存）
+ * 6. 分段并行下载（多个 Range 并发，定位写入预分配文件）
+ * 7. 断点续传（已同步的区间和 ETag/Last-Modified 持久化，失败或重启后以 Range + If-Range 继续）
+ * 8. 磁盘缓存（完整下载经 DownloadCache 读写，按 Cache-Control/Expires 复用，过期时条件请求重新验证）
+ * 9. 统一调度（DownloadScheduler 固定线程数、按优先级执行，相同资源的并发请求共享一次传输）
  */
 public class FileDownloadManager {
     private static final String TAG = "FileDownloadManager";
     private static final String CHARSET = "UTF-8";
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
     
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 内存回调（byte[]）超过该大小时记录警告：整个文件都在内存中，大文件应使用 downloadToFile
+    private static final long LARGE_IN_MEMORY_BYTES = 16 * 1024 * 1024;
+    // 小于该大小的文件不分段
+    private static final long MIN_SEGMENTED_SIZE = 4 * 1024 * 1024;
+    // 分段下载的工作线程：上限为调度器同时进行的下载数 × 每个下载的最大分段并发，空闲后回收
+    private static final ExecutorService SEGMENT_EXECUTOR = createSegmentExecutor();
+    // 单连接下载每写入该字节数同步一次磁盘并记录续传进度
+    private static final long CHECKPOINT_BYTES = 4 * 1024 * 1024;
+    // 下载线程复用的读缓冲区
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+    
+    // 进程级的续传状态数据库，在 Application 中设置
+    private static volatile UploadDatabase store;
+    
+    /**
+     * 设置续传状态使用的数据库（对所有实例生效）；未设置时失败的下载不保留 .part 文件，每次从头开始
+     */
+    public static void attachStore(UploadDatabase database) {
+        store = database;
+    }
+    
+    private static ExecutorService createSegmentExecutor() {
+        int threads = DownloadScheduler.WORKER_COUNT * SegmentedDownload.MAX_PARALLELISM;
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "download-segment-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
+    /**
+     * 内存下载回调（适合小文件）
+     */
     public interface DownloadCallback {
         void onProgress(long downloaded, long total);
         void onSuccess(byte[] data, String contentType);
@@ -29,120 +91,781 @@ public class FileDownloadManager {
     }
     
     /**
-     * 下载文件 - 支持 Range 请求
+     * 下载到文件的回调
+     */
+    public interface FileCallback {
+        void onProgress(long downloaded, long total);
+        void onSuccess(File file, String contentType);
+        void onError(String error);
+    }
+    
+    /**
+     * 下载到输出流的回调
+     */
+    public interface StreamCallback {
+        void onProgress(long downloaded, long total);
+        void onSuccess(long bytes, String contentType);
+        void onError(String error);
+    }
+    
+    /**
+     * 流式传输的进度回调
+     */
+    private interface ProgressListener {
+        void onProgress(long downloaded, long total) throws IOException;
+    }
+    
+    /**
+     * 响应头到达后提供响应体的写入目标（可根据 200/206 决定从哪里开始写）
+     */
+    private interface BodyTarget {
+        OutputStream open(TransferResult response) throws IOException;
+    }
+    
+    /**
+     * 一次传输的结果（响应头信息和实际写入的字节数）
+     */
+    private static class TransferResult {
+        int responseCode;
+        String contentType;
+        String etag;
+        String lastModified;
+        // 响应体在完整文件中的起始偏移（200 为 0，206 取自 Content-Range）
+        long rangeStart;
+        long totalSize = -1;
+        long bytes;
+        DownloadCache.CacheHeaders cacheHeaders;
+    }
+    
+    /**
+     * 续传校验失败（资源已变化、Content-Range 与请求不一致、范围无效），已下载部分不可再用
+     */
+    static class ResumeMismatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ResumeMismatchException(String message) {
+            super(message);
+        }
+    }
+    
+    /**
+     * 下载文件 - 支持 Range 请求，数据缓存在内存中（仅适合小文件）
+     * 大小不做限制（与原有行为一致），超过 16MB 时只记录警告；大文件请使用 downloadToFile 避免 OOM
+     * 同一 URL 和范围的并发请求共享一次传输，回调拿到的是同一个数组，不要修改
      * @param fileUrl 文件 URL（包含 dir 和 file 参数）
      * @param rangeStart Range 起始位置（null 表示不使用 Range）
      * @param rangeEnd Range 结束位置（null 表示到文件末尾）
+     * @param priority 调度优先级
      * @param callback 回调
      */
+    public void downloadFile(String fileUrl, Long rangeStart, Long rangeEnd, DownloadScheduler.Priority priority,
+                             DownloadCallback callback) {
+        String key = "bytes:" + rangeStart + "-" + rangeEnd + ":" + fileUrl;
+        DownloadScheduler.getInstance().submit(key, priority, progress -> {
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                boolean[] warned = new boolean[1];
+                ProgressListener listener = (downloaded, total) -> {
+                    if (!warned[0] && Math.max(downloaded, total) > LARGE_IN_MEMORY_BYTES) {
+                        warned[0] = true;
+                        Log.w(TAG, "内存下载的文件较大（" + Math.max(downloaded, total) + " 字节），建议使用 downloadToFile: " + fileUrl);
+                    }
+                    progress.onProgress(downloaded, total);
+                };
+                // 只有完整下载经过缓存
+                TransferResult result = rangeStart == null
+                        ? transferThroughCache(fileUrl, buffer, listener)
+                        : transfer(fileUrl, rangeStart, rangeEnd, null, response -> buffer, listener);
+                byte[] fileData = buffer.toByteArray();
+                Log.d(TAG, "下载完成，大小: " + fileData.length);
+                return new Downloaded<>(fileData, result.contentType);
+            } catch (Exception e) {
+                Log.e(TAG, "下载错误", e);
+                throw e;
+            }
+        }, new DownloadScheduler.Listener<Downloaded<byte[]>>() {
+            @Override
+            public void onProgress(long downloaded, long total) {
+                callback.onProgress(downloaded, total);
+            }
+            
+            @Override
+            public void onSuccess(Downloaded<byte[]> result) {
+                callback.onSuccess(result.value, result.contentType);
+            }
+            
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        });
+    }
+    
     public void downloadFile(String fileUrl, Long rangeStart, Long rangeEnd, DownloadCallback callback) {
-        new Thread(() -> {
-            HttpURLConnection conn = null;
+        downloadFile(fileUrl, rangeStart, rangeEnd, DownloadScheduler.Priority.NORMAL, callback);
+    }
+    
+    /**
+     * 下载文件（不使用 Range）
+     */
+    public void downloadFile(String fileUrl, DownloadCallback callback) {
+        downloadFile(fileUrl, null, null, callback);
+    }
+    
+    /**
+     * 流式下载到文件：先写入同目录的 .part 临时文件，完成并同步到磁盘后原子重命名为目标文件，
+     * 中途失败不会留下不完整的目标文件；设置了 store 时失败保留 .part，再次下载同一目标时续传
+     */
+    public void downloadToFile(String fileUrl, File target, DownloadScheduler.Priority priority, FileCallback callback) {
+        DownloadScheduler.getInstance().submit(fileKey(fileUrl, target), priority, progress -> {
+            File partFile = partFileOf(target);
+            DownloadStateRecord state = loadState(fileUrl, target, partFile);
             try {
-                // 解析 URL 参数
-                Map<String, String> params = parseUrlParams(fileUrl);
-                String dir = params.get("dir");
-                String file = params.get("file");
-                
-                Log.d(TAG, "========== 下载文件 ==========");
-                Log.d(TAG, "URL: " + fileUrl);
-                Log.d(TAG, "Dir: " + dir);
-                Log.d(TAG, "File: " + file);
-                
-                URL url = new URL(fileUrl);
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-                conn.setConnectTimeout(30000);
-                conn.setReadTimeout(30000);
-                
-                // 设置 Range 请求头（如果需要）
-                if (rangeStart != null) {
-                    String rangeHeader = "bytes=" + rangeStart + "-";
-                    if (rangeEnd != null) {
-                        rangeHeader += rangeEnd;
+                TransferResult result = copyCachedToPart(fileUrl, partFile, progress::onProgress);
+                if (result == null) {
+                    result = streamToPart(fileUrl, partFile, state, progress::onProgress);
+                    commitPart(partFile, target, state);
+                    DownloadCache.getInstance().put(fileUrl, target, result.cacheHeaders);
+                } else {
+                    commitPart(partFile, target, state);
+                }
+                Log.d(TAG, "下载完成: " + target + "，大小: " + target.length());
+                return new Downloaded<>(target, result.contentType);
+            } catch (Exception e) {
+                Log.e(TAG, "下载错误", e);
+                handleFailure(partFile, state, e);
+                throw e;
+            }
+        }, fileListener(callback));
+    }
+    
+    public void downloadToFile(String fileUrl, File target, FileCallback callback) {
+        downloadToFile(fileUrl, target, DownloadScheduler.Priority.NORMAL, callback);
+    }
+    
+    /**
+     * 分段并行下载到文件：HEAD 探测支持 Range 且文件足够大时拆分为多段并发获取，
+     * 否则退回单连接流式下载；同样先写 .part 文件，完成后原子重命名，失败时已完成的分段可续传
+     * 与 downloadToFile 使用相同的合并 key，同一目标不会被两种方式同时写入
+     */
+    public void downloadSegmented(String fileUrl, File target, DownloadScheduler.Priority priority,
+                                  FileCallback callback) {
+        DownloadScheduler.getInstance().submit(fileKey(fileUrl, target), priority, progress -> {
+            File partFile = partFileOf(target);
+            DownloadStateRecord state = loadState(fileUrl, target, partFile);
+            try {
+                TransferResult cached = copyCachedToPart(fileUrl, partFile, progress::onProgress);
+                if (cached != null) {
+                    commitPart(partFile, target, state);
+                    return new Downloaded<>(target, cached.contentType);
+                }
+                ProbeResult probe = probe(fileUrl);
+                String contentType;
+                DownloadCache.CacheHeaders cacheHeaders;
+                if (!probe.supportsRange || probe.size < MIN_SEGMENTED_SIZE) {
+                    Log.d(TAG, "不分段下载（Range: " + probe.supportsRange + "，大小: " + probe.size + "）");
+                    TransferResult result = streamToPart(fileUrl, partFile, state, progress::onProgress);
+                    contentType = result.contentType;
+                    cacheHeaders = result.cacheHeaders;
+                } else {
+                    contentType = fetchSegments(fileUrl, partFile, probe, state, progress);
+                    cacheHeaders = probe.cacheHeaders;
+                }
+                commitPart(partFile, target, state);
+                DownloadCache.getInstance().put(fileUrl, target, cacheHeaders);
+                Log.d(TAG, "下载完成: " + target);
+                return new Downloaded<>(target, contentType);
+            } catch (Exception e) {
+                Log.e(TAG, "下载错误", e);
+                handleFailure(partFile, state, e);
+                throw e;
+            }
+        }, fileListener(callback));
+    }
+    
+    public void downloadSegmented(String fileUrl, File target, FileCallback callback) {
+        downloadSegmented(fileUrl, target, DownloadScheduler.Priority.NORMAL, callback);
+    }
+    
+    private static String fileKey(String fileUrl, File target) {
+        return "file:" + target.getPath() + ":" + fileUrl;
+    }
+    
+    private static DownloadScheduler.Listener<Downloaded<File>> fileListener(FileCallback callback) {
+        return new DownloadScheduler.Listener<Downloaded<File>>() {
+            @Override
+            public void onProgress(long downloaded, long total) {
+                callback.onProgress(downloaded, total);
+            }
+            
+            @Override
+            public void onSuccess(Downloaded<File> result) {
+                callback.onSuccess(result.value, result.contentType);
+            }
+            
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        };
+    }
+    
+    /**
+     * 调度任务的结果（内容和类型）
+     */
+    private static class Downloaded<T> {
+        final T value;
+        final String contentType;
+        
+        Downloaded(T value, String contentType) {
+            this.value = value;
+            this.contentType = contentType;
+        }
+    }
+    
+    /**
+     * 分段下载 .part 中尚未完成的区间；探测到的校验值或大小与记录不一致时从头开始
+     */
+    private String fetchSegments(String fileUrl, File partFile, ProbeResult probe, DownloadStateRecord state,
+                                 DownloadScheduler.ProgressListener progress) throws IOException, InterruptedException {
+        prepareDir(partFile);
+        List<long[]> missing;
+        long completed = 0;
+        String validator = null;
+        if (state != null) {
+            if (state.getTotalSize() != probe.size || !state.matches(probe.etag, probe.lastModified)) {
+                if (state.getCompletedBytes() > 0) {
+                    Log.w(TAG, "资源已变化，丢弃已下载部分: " + partFile);
+                }
+                state.clearRanges();
+            }
+            state.setEtag(probe.etag);
+            state.setLastModified(probe.lastModified);
+            state.setTotalSize(probe.size);
+            state.setContentType(probe.contentType);
+            persistState(state);
+            missing = state.getMissingRanges(probe.size);
+            completed = state.getCompletedBytes();
+            validator = state.getValidator();
+            if (completed > 0) {
+                Log.d(TAG, "续传分段下载: 已完成 " + completed + "/" + probe.size);
+            }
+        } else {
+            missing = Collections.singletonList(new long[]{0, probe.size});
+        }
+        
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            if (completed == 0) {
+                file.setLength(0);
+            }
+            SegmentedDownload download = new SegmentedDownload(fileUrl, probe.size, validator, missing, completed,
+                    SEGMENT_EXECUTOR, progress::onProgress);
+            if (state != null) {
+                download.setCheckpointListener((start, end) -> {
+                    state.addRange(start, end);
+                    persistState(state);
+                });
+            }
+            download.run(file);
+            file.getFD().sync();
+        }
+        return probe.contentType;
+    }
+    
+    private static File partFileOf(File target) {
+        return new File(target.getPath() + ".part");
+    }
+    
+    private static void prepareDir(File target) throws IOException {
+        File dir = target.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+    }
+    
+    /**
+     * 单连接流式写入 .part 文件并同步到磁盘；有可续传的前缀时带 Range + If-Range 请求剩余部分，
+     * 服务器返回 200（资源已变化或忽略 Range）则截断从头写，返回 206 则校验起点后接在前缀之后
+     */
+    private TransferResult streamToPart(String fileUrl, File partFile, DownloadStateRecord state,
+                                        ProgressListener listener) throws IOException {
+        prepareDir(partFile);
+        long offset = 0;
+        String validator = null;
+        if (state != null && state.getCompletedPrefix() > 0 && state.getValidator() != null) {
+            offset = state.getCompletedPrefix();
+            validator = state.getValidator();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            if (offset > 0 && offset == state.getTotalSize()) {
+                // 上次已下载完整但未来得及重命名（没有响应头，不写入缓存）
+                Log.d(TAG, "已下载完整，直接提交: " + partFile);
+                TransferResult result = new TransferResult();
+                result.contentType = state.getContentType();
+                result.totalSize = offset;
+                return result;
+            }
+            if (offset > 0) {
+                Log.d(TAG, "续传: 从 " + offset + " 开始，If-Range: " + validator);
+            }
+            PartWriter[] writer = new PartWriter[1];
+            try {
+                TransferResult result = transfer(fileUrl, offset > 0 ? offset : null, null, validator, response -> {
+                    writer[0] = new PartWriter(file, response.rangeStart, state);
+                    writer[0].begin(response);
+                    return writer[0];
+                }, (downloaded, total) -> listener.onProgress(writer[0].start + downloaded, total));
+                writer[0].checkpoint();
+                return result;
+            } catch (IOException e) {
+                // 中断前已写入的部分同步后记录，下次从这里续传
+                if (writer[0] != null) {
+                    try {
+                        writer[0].checkpoint();
+                    } catch (IOException ex) {
+                        Log.e(TAG, "记录续传进度失败", ex);
                     }
-                    conn.setRequestProperty("Range", rangeHeader);
-                    Log.d(TAG, "Range 请求: " + rangeHeader);
                 }
-                
-                int responseCode = conn.getResponseCode();
-                Log.d(TAG, "响应码: " + responseCode);
-                
-                // 检查响应码（200 或 206）
-                if (responseCode != HttpURLConnection.HTTP_OK && 
-                    responseCode != HttpURLConnection.HTTP_PARTIAL) {
-                    callback.onError("HTTP 错误: " + responseCode);
-                    return;
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * 单连接写入 .part 文件：从响应起点开始写，每 CHECKPOINT_BYTES 同步磁盘并记录已完成区间
+     */
+    private class PartWriter extends OutputStream {
+        private final RandomAccessFile file;
+        private final long start;
+        private final DownloadStateRecord state;
+        private long position;
+        private long checkpointed;
+        
+        PartWriter(RandomAccessFile file, long start, DownloadStateRecord state) {
+            this.file = file;
+            this.start = start;
+            this.state = state;
+            this.position = start;
+            this.checkpointed = start;
+        }
+        
+        /**
+         * 根据响应截断文件并更新续传状态：200 从头开始并记录新的校验值，206 要求校验值与记录一致
+         */
+        void begin(TransferResult response) throws IOException {
+            if (state != null) {
+                if (start == 0) {
+                    if (state.getCompletedBytes() > 0) {
+                        Log.w(TAG, "服务器返回完整内容，从头下载");
+                    }
+                    state.clearRanges();
+                    state.setEtag(response.etag);
+                    state.setLastModified(response.lastModified);
+                    state.setTotalSize(response.totalSize);
+                    state.setContentType(response.contentType);
+                } else if (!state.matches(response.etag, response.lastModified)
+                        || (state.getTotalSize() >= 0 && state.getTotalSize() != response.totalSize)) {
+                    throw new ResumeMismatchException("续传响应与已下载部分不一致");
                 }
-                
-                // 读取响应头
-                String contentType = conn.getHeaderField("Content-Type");
-                String acceptRanges = conn.getHeaderField("Accept-Ranges");
-                String contentRange = conn.getHeaderField("Content-Range");
-                String contentLength = conn.getHeaderField("Content-Length");
-                String cacheControl = conn.getHeaderField("Cache-Control");
-                String expires = conn.getHeaderField("Expires");
-                
-                Log.d(TAG, "========== 响应头 ==========");
-                Log.d(TAG, "Content-Type: " + contentType);
-                Log.d(TAG, "Accept-Ranges: " + acceptRanges);
-                Log.d(TAG, "Content-Range: " + contentRange);
-                Log.d(TAG, "Content-Length: " + contentLength);
-                Log.d(TAG, "Cache-Control: " + cacheControl);
-                Log.d(TAG, "Expires: " + expires);
-                
-                // 解析内容长度
-                long totalSize = contentLength != null ? Long.parseLong(contentLength) : -1;
-                
-                // 如果是 206 响应，从 Content-Range 中获取总大小
-                if (responseCode == HttpURLConnection.HTTP_PARTIAL && contentRange != null) {
-                    // Content-Range: bytes 0-1023/2048
-                    String[] parts = contentRange.split("/");
-                    if (parts.length == 2) {
-                        totalSize = Long.parseLong(parts[1]);
+                state.truncateTo(start);
+                persistState(state);
+            }
+            file.setLength(start);
+            file.seek(start);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            file.write(b, off, len);
+            position += len;
+            if (position - checkpointed >= CHECKPOINT_BYTES) {
+                checkpoint();
+            }
+        }
+        
+        /**
+         * 同步已写入的数据并记录区间（先落盘再记录，记录的区间一定可信）
+         */
+        void checkpoint() throws IOException {
+            file.getFD().sync();
+            if (state != null && position > checkpointed) {
+                state.addRange(start, position);
+                persistState(state);
+            }
+            checkpointed = position;
+        }
+    }
+    
+    /**
+     * 原子重命名为目标文件（同一目录内 rename 会直接替换旧文件），并清除续传状态
+     */
+    private void commitPart(File partFile, File target, DownloadStateRecord state) throws IOException {
+        if (!partFile.renameTo(target)) {
+            throw new IOException("重命名失败: " + partFile + " -> " + target);
+        }
+        if (state != null && store != null) {
+            store.deleteDownloadState(state.getTargetPath());
+        }
+    }
+    
+    /**
+     * 读取目标文件的续传状态；URL 不同或 .part 已不存在时返回新的空状态，未设置 store 时返回 null
+     */
+    private DownloadStateRecord loadState(String fileUrl, File target, File partFile) {
+        UploadDatabase db = store;
+        if (db == null) {
+            return null;
+        }
+        DownloadStateRecord state = null;
+        try {
+            state = db.getDownloadState(target.getPath());
+        } catch (Exception e) {
+            Log.e(TAG, "读取续传状态失败", e);
+        }
+        if (state == null || !fileUrl.equals(state.getUrl()) || !partFile.exists()) {
+            return new DownloadStateRecord(target.getPath(), fileUrl);
+        }
+        // .part 比记录短（如同步前被杀）时只信任文件内的部分
+        state.truncateTo(partFile.length());
+        return state;
+    }
+    
+    /**
+     * 保存续传状态；没有可用于 If-Range 的校验值时无法安全续传，不保存
+     */
+    private void persistState(DownloadStateRecord state) {
+        UploadDatabase db = store;
+        if (db == null || state.getValidator() == null) {
+            return;
+        }
+        try {
+            db.saveDownloadState(state);
+        } catch (Exception e) {
+            Log.e(TAG, "保存续传状态失败", e);
+        }
+    }
+    
+    /**
+     * 下载失败：可续传时保留 .part 和状态，否则（无 store、无校验值、校验不一致）一并删除
+     */
+    private void handleFailure(File partFile, DownloadStateRecord state, Exception e) {
+        UploadDatabase db = store;
+        boolean resumable = state != null && db != null && state.getValidator() != null
+                && !(e instanceof ResumeMismatchException);
+        if (resumable) {
+            Log.d(TAG, "保留已下载部分以便续传: " + state.getCompletedBytes() + " 字节");
+            return;
+        }
+        partFile.delete();
+        if (state != null && db != null) {
+            try {
+                db.deleteDownloadState(state.getTargetPath());
+            } catch (Exception ex) {
+                Log.e(TAG, "删除续传状态失败", ex);
+            }
+        }
+    }
+    
+    /**
+     * 流式下载到调用方提供的输出流（不会关闭该流）；每个调用方的输出流不同，不做合并
+     */
+    public void downloadToStream(String fileUrl, OutputStream out, DownloadScheduler.Priority priority,
+                                 StreamCallback callback) {
+        DownloadScheduler.getInstance().submit(null, priority, progress -> {
+            try {
+                TransferResult result = transferThroughCache(fileUrl, out, progress::onProgress);
+                out.flush();
+                Log.d(TAG, "下载完成，大小: " + result.bytes);
+                return new Downloaded<>(result.bytes, result.contentType);
+            } catch (Exception e) {
+                Log.e(TAG, "下载错误", e);
+                throw e;
+            }
+        }, new DownloadScheduler.Listener<Downloaded<Long>>() {
+            @Override
+            public void onProgress(long downloaded, long total) {
+                callback.onProgress(downloaded, total);
+            }
+            
+            @Override
+            public void onSuccess(Downloaded<Long> result) {
+                callback.onSuccess(result.value, result.contentType);
+            }
+            
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        });
+    }
+    
+    public void downloadToStream(String fileUrl, OutputStream out, StreamCallback callback) {
+        downloadToStream(fileUrl, out, DownloadScheduler.Priority.NORMAL, callback);
+    }
+    
+    /**
+     * 完整下载到 out：缓存可用时直接复制缓存文件，否则请求网络并同时写入缓存
+     */
+    private TransferResult transferThroughCache(String fileUrl, OutputStream out, ProgressListener listener)
+            throws IOException {
+        TransferResult cached = copyFromCache(fileUrl, out, listener);
+        if (cached != null) {
+            return cached;
+        }
+        DownloadCache.Writer[] writer = new DownloadCache.Writer[1];
+        try {
+            TransferResult result = transfer(fileUrl, null, null, null, response -> {
+                writer[0] = DownloadCache.getInstance().openWriter(fileUrl, response.cacheHeaders);
+                return writer[0] != null ? new TeeOutputStream(out, writer[0]) : out;
+            }, listener);
+            if (writer[0] != null) {
+                writer[0].commit();
+            }
+            return result;
+        } catch (IOException e) {
+            if (writer[0] != null) {
+                writer[0].abort();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * 缓存可用时复制到 .part 文件并同步，返回 null 表示需要从网络下载
+     */
+    private TransferResult copyCachedToPart(String fileUrl, File partFile, ProgressListener listener) throws IOException {
+        FileInputStream in = openCached(fileUrl);
+        if (in == null) {
+            // 未命中时不动 .part，可能还有可续传的数据
+            return null;
+        }
+        try {
+            prepareDir(partFile);
+            try (FileOutputStream out = new FileOutputStream(partFile)) {
+                TransferResult result = copyCached(fileUrl, in, out, listener);
+                out.getFD().sync();
+                return result;
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * 把新鲜的（或重新验证通过的）缓存文件复制到 out，没有可用缓存时返回 null
+     */
+    private TransferResult copyFromCache(String fileUrl, OutputStream out, ProgressListener listener) throws IOException {
+        FileInputStream in = openCached(fileUrl);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return copyCached(fileUrl, in, out, listener);
+        } finally {
+            in.close();
+        }
+    }
+    
+    private static FileInputStream openCached(String fileUrl) {
+        File cached = DownloadCache.getInstance().getCachedFile(fileUrl);
+        if (cached == null) {
+            return null;
+        }
+        try {
+            return new FileInputStream(cached);
+        } catch (FileNotFoundException e) {
+            // 刚好被淘汰
+            return null;
+        }
+    }
+    
+    private TransferResult copyCached(String fileUrl, FileInputStream in, OutputStream out, ProgressListener listener)
+            throws IOException {
+        TransferResult result = new TransferResult();
+        result.contentType = DownloadCache.getInstance().getContentType(fileUrl);
+        result.totalSize = in.getChannel().size();
+        byte[] data = BUFFER.get();
+        int nRead;
+        while ((nRead = in.read(data, 0, data.length)) != -1) {
+            out.write(data, 0, nRead);
+            result.bytes += nRead;
+            listener.onProgress(result.bytes, result.totalSize);
+        }
+        Log.d(TAG, "缓存命中: " + fileUrl + "，大小: " + result.bytes);
+        return result;
+    }
+    
+    /**
+     * 同时写入下载目标和缓存
+     */
+    private static class TeeOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final OutputStream copy;
+        
+        TeeOutputStream(OutputStream out, OutputStream copy) {
+            this.out = out;
+            this.copy = copy;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            copy.write(b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            copy.write(b, off, len);
+        }
+    }
+    
+    /**
+     * 发起请求并把响应体通过复用的缓冲区写入 target 提供的输出流
+     * @param ifRange If-Range 校验值（ETag 或 Last-Modified），资源已变化时服务器返回 200 完整内容
+     */
+    private TransferResult transfer(String fileUrl, Long rangeStart, Long rangeEnd, String ifRange,
+                                    BodyTarget target, ProgressListener listener) throws IOException {
+        HttpURLConnection conn = null;
+        try {
+            // 解析 URL 参数
+            Map<String, String> params = parseUrlParams(fileUrl);
+            String dir = params.get("dir");
+            String file = params.get("file");
+            
+            Log.d(TAG, "========== 下载文件 ==========");
+            Log.d(TAG, "URL: " + fileUrl);
+            Log.d(TAG, "Dir: " + dir);
+            Log.d(TAG, "File: " + file);
+            
+            URL url = new URL(fileUrl);
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("GET");
+            conn.setConnectTimeout(30000);
+            conn.setReadTimeout(30000);
+            
+            // 设置 Range 请求头（如果需要）
+            if (rangeStart != null) {
+                String rangeHeader = "bytes=" + rangeStart + "-";
+                if (rangeEnd != null) {
+                    rangeHeader += rangeEnd;
+                }
+                conn.setRequestProperty("Range", rangeHeader);
+                Log.d(TAG, "Range 请求: " + rangeHeader);
+                if (ifRange != null) {
+                    conn.setRequestProperty("If-Range", ifRange);
+                }
+            }
+            
+            int responseCode = conn.getResponseCode();
+            Log.d(TAG, "响应码: " + responseCode);
+            
+            if (responseCode == HTTP_RANGE_NOT_SATISFIABLE && rangeStart != null) {
+                throw new ResumeMismatchException("请求范围无效: " + rangeStart);
+            }
+            
+            // 检查响应码（200 或 206）
+            if (responseCode != HttpURLConnection.HTTP_OK && 
+                responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("HTTP 错误: " + responseCode);
+            }
+            
+            // 读取响应头
+            String contentType = conn.getHeaderField("Content-Type");
+            String acceptRanges = conn.getHeaderField("Accept-Ranges");
+            String contentRange = conn.getHeaderField("Content-Range");
+            String contentLength = conn.getHeaderField("Content-Length");
+            String cacheControl = conn.getHeaderField("Cache-Control");
+            String expires = conn.getHeaderField("Expires");
+            String etag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+            
+            Log.d(TAG, "========== 响应头 ==========");
+            Log.d(TAG, "Content-Type: " + contentType);
+            Log.d(TAG, "Accept-Ranges: " + acceptRanges);
+            Log.d(TAG, "Content-Range: " + contentRange);
+            Log.d(TAG, "Content-Length: " + contentLength);
+            Log.d(TAG, "Cache-Control: " + cacheControl);
+            Log.d(TAG, "Expires: " + expires);
+            Log.d(TAG, "ETag: " + etag);
+            
+            TransferResult result = new TransferResult();
+            result.responseCode = responseCode;
+            result.contentType = contentType;
+            result.etag = etag;
+            result.lastModified = lastModified;
+            result.cacheHeaders = DownloadCache.CacheHeaders.from(conn);
+            // 解析内容长度
+            long bodyLength = contentLength != null ? Long.parseLong(contentLength) : -1;
+            result.totalSize = bodyLength;
+            
+            // 如果是 206 响应，从 Content-Range 中获取起点和总大小；起点必须与请求一致，否则拼接会错位
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                long[] range = parseContentRange(contentRange);
+                if (range != null) {
+                    result.rangeStart = range[0];
+                    if (range[2] >= 0) {
+                        result.totalSize = range[2];
                     }
                 }
-                
-                // 读取数据
-                InputStream is = new BufferedInputStream(conn.getInputStream());
-                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                
-                byte[] data = new byte[8192];
+                if (rangeStart != null && (range == null || range[0] != rangeStart)) {
+                    throw new ResumeMismatchException("Content-Range 与请求不一致: " + contentRange);
+                }
+                // 续传完成后缓存的是完整文件
+                result.cacheHeaders.contentLength = result.totalSize;
+            }
+            // 读取数据：直接写入目标，只占用一个复用的缓冲区
+            OutputStream out = target.open(result);
+            byte[] data = BUFFER.get();
+            try (InputStream is = conn.getInputStream()) {
                 int nRead;
-                long downloaded = 0;
-                
                 while ((nRead = is.read(data, 0, data.length)) != -1) {
-                    buffer.write(data, 0, nRead);
-                    downloaded += nRead;
+                    out.write(data, 0, nRead);
+                    result.bytes += nRead;
                     
                     // 通知进度
-                    long finalTotalSize = totalSize;
-                    long finalDownloaded = downloaded;
-                    callback.onProgress(finalDownloaded, finalTotalSize);
-                }
-                
-                is.close();
-                byte[] fileData = buffer.toByteArray();
-                
-                Log.d(TAG, "下载完成，大小: " + fileData.length);
-                callback.onSuccess(fileData, contentType);
-                
-            } catch (Exception e) {
-                Log.e(TAG, "下载错误", e);
-                callback.onError(e.getMessage());
-            } finally {
-                if (conn != null) {
-                    conn.disconnect();
+                    listener.onProgress(result.bytes, result.totalSize);
                 }
             }
-        }).start();
+            if (bodyLength >= 0 && result.bytes != bodyLength) {
+                throw new IOException("响应不完整: " + result.bytes + "/" + bodyLength);
+            }
+            return result;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
     }
     
     /**
-     * 下载文件（不使用 Range）
+     * 解析 Content-Range: bytes 0-1023/2048，返回 {起点, 终点, 总大小}（总大小未知为 -1），格式不对返回 null
      */
-    public void downloadFile(String fileUrl, DownloadCallback callback) {
-        downloadFile(fileUrl, null, null, callback);
+    static long[] parseContentRange(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return null;
+        }
+        try {
+            String spec = contentRange.substring(6).trim();
+            int dash = spec.indexOf('-');
+            int slash = spec.indexOf('/');
+            if (dash <= 0 || slash <= dash) {
+                return null;
+            }
+            String total = spec.substring(slash + 1);
+            return new long[]{
+                    Long.parseLong(spec.substring(0, dash)),
+                    Long.parseLong(spec.substring(dash + 1, slash)),
+                    "*".equals(total) ? -1 : Long.parseLong(total)
+            };
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
     
     /**
@@ -203,33 +926,67 @@ public class FileDownloadManager {
      * 检查服务器是否支持 Range 请求
      */
     public void checkRangeSupport(String fileUrl, RangeSupportCallback callback) {
-        new Thread(() -> {
-            HttpURLConnection conn = null;
-            try {
-                URL url = new URL(fileUrl);
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("HEAD");
-                conn.setConnectTimeout(10000);
-                conn.setReadTimeout(10000);
-                
-                int responseCode = conn.getResponseCode();
-                String acceptRanges = conn.getHeaderField("Accept-Ranges");
-                String contentLength = conn.getHeaderField("Content-Length");
-                
-                boolean supportsRange = "bytes".equalsIgnoreCase(acceptRanges);
-                long fileSize = contentLength != null ? Long.parseLong(contentLength) : -1;
-                
-                callback.onResult(supportsRange, fileSize);
-                
-            } catch (Exception e) {
-                Log.e(TAG, "检查 Range 支持错误", e);
-                callback.onResult(false, -1);
-            } finally {
-                if (conn != null) {
-                    conn.disconnect();
-                }
+        // HEAD 请求很小，且通常决定界面接下来怎么播放/下载，不排在大文件后面
+        DownloadScheduler.getInstance().submit("probe:" + fileUrl, DownloadScheduler.Priority.VISIBLE,
+                progress -> probe(fileUrl), new DownloadScheduler.Listener<ProbeResult>() {
+                    @Override
+                    public void onProgress(long downloaded, long total) {
+                    }
+                    
+                    @Override
+                    public void onSuccess(ProbeResult probe) {
+                        callback.onResult(probe.supportsRange, probe.size);
+                    }
+                    
+                    @Override
+                    public void onError(String error) {
+                        callback.onResult(false, -1);
+                    }
+                });
+    }
+    
+    /**
+     * HEAD 探测：是否支持 Range、文件大小和类型，失败时视为不支持
+     */
+    private ProbeResult probe(String fileUrl) {
+        ProbeResult result = new ProbeResult();
+        HttpURLConnection conn = null;
+        try {
+            URL url = new URL(fileUrl);
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("HEAD");
+            conn.setConnectTimeout(10000);
+            conn.setReadTimeout(10000);
+            
+            int responseCode = conn.getResponseCode();
+            String acceptRanges = conn.getHeaderField("Accept-Ranges");
+            String contentLength = conn.getHeaderField("Content-Length");
+            
+            result.supportsRange = responseCode == HttpURLConnection.HTTP_OK && "bytes".equalsIgnoreCase(acceptRanges);
+            result.size = contentLength != null ? Long.parseLong(contentLength) : -1;
+            result.contentType = conn.getHeaderField("Content-Type");
+            result.etag = conn.getHeaderField("ETag");
+            result.lastModified = conn.getHeaderField("Last-Modified");
+            result.cacheHeaders = DownloadCache.CacheHeaders.from(conn);
+        } catch (Exception e) {
+            Log.e(TAG, "检查 Range 支持错误", e);
+            result.supportsRange = false;
+            result.size = -1;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
             }
-        }).start();
+        }
+        return result;
+    }
+    
+    private static class ProbeResult {
+        boolean supportsRange;
+        long size = -1;
+        String contentType;
+        String etag;
+        String lastModified;
+        DownloadCache.CacheHeaders cacheHeaders;
     }
     
     public interface RangeSupportCallback {
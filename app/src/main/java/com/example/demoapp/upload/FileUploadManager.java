@@ -7,257 +7,842 @@ import android.os.Handler;
 import android.os.Looper;
 import android.provider.OpenableColumns;
 import android.util.Log;
+import org.json.JSONArray;
 import org.json.JSONObject;
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 public class FileUploadManager {
     private static final String TAG = "FileUploadManager";
-    private static final int CHUNK_SIZE = 512 * 1024;
-    private static final int MAX_CONCURRENT_UPLOADS = 6;
-    private static final int MAX_RETRIES = 88888888;
-    private static final String UPLOAD_REGISTER_URL = "http://120.53.248.2:65002/api/upload/register";
-    private static final String UPLOAD_SAVE_URL = "http://120.53.248.2:65002/api/upload/save";
-    private static final String UPLOAD_MERGE_URL = "http://120.53.248.2:65002/api/upload/merge";
-
-    private final ExecutorService executorService;
+    // 同一分片校验和不一致时的最大重发次数，超过后视为本地数据源不稳定
+    private static final int MAX_CRC_RESENDS = 3;
+    // 服务器校验 X-Chunk-Crc32c 不一致时返回的 HTTP 状态码
+    private static final int HTTP_CHECKSUM_MISMATCH = 422;
+    private static final String DEFAULT_BASE_URL = "http://120.53.248.2:65002";
+    private static final String UPLOAD_REGISTER_PATH = "/api/upload/register";
+    private static final String UPLOAD_SAVE_PATH = "/api/upload/save";
+    private static final String UPLOAD_MERGE_PATH = "/api/upload/merge";
+    private static final String UPLOAD_MERGE_STATUS_PATH = "/api/upload/merge/status";
+    // 异步合并已受理、仍在进行（HTTP 202 或响应 code 202）
+    private static final int MERGE_PENDING = 202;
+    // 合并状态轮询间隔（逐步拉长）和整体超时
+    private static final long MIN_POLL_INTERVAL_MILLIS = 500;
+    private static final long MAX_POLL_INTERVAL_MILLIS = 5000;
+    private static final long MERGE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+    // 会话的发起页面：只有发起页面会在下次打开时续传该会话
+    public static final String ORIGIN_UPLOAD_PAGE = "upload_page";
+    public static final String ORIGIN_EXPLORE_PAGE = "explore_page";
+
+    // 当前进程内正在上传的 fileId，防止同一会话被重复续传
+    private static final Set<String> ACTIVE_UPLOADS = ConcurrentHashMap.newKeySet();
+    // 等待异步合并结果的会话，收到推送通知时据此立即查询
+    private static final Map<String, UploadSession> PENDING_MERGES = new ConcurrentHashMap<>();
+
+    private final UploadScheduler scheduler;
+    private final ThroughputEstimator estimator;
+    private final UploadTransport transport;
+    private final String baseUrl;
+    // 未压缩的分片直接从文件区间发送（ChunkRegionBody），关闭后回到每个分片读入 byte[] 的方式
+    private final boolean zeroCopy;
+    private final UploadProgressBus progressBus;
+    private final UploadMetrics metrics;
+    private final BandwidthLimiter limiter;
+    // null 表示使用应用共享的数据库
+    private final UploadDatabase sessionStore;
     private final Handler mainHandler;
+    // null 表示不保存续传会话（如聊天附件，失败后由用户重新发送）
+    private final String origin;
+    // 本实例发起、尚未结束的会话，shutdown 时取消其中不保存续传的会话
+    private final Set<UploadSession> sessions = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown = false;
 
     public interface UploadCallback {
         void onProgress(int progress);
         void onSuccess(String url, String fileName);
         void onError(String error);
+
+        /**
+         * 并发窗口变化（在途分片上限），用于线上观察拥塞控制
+         */
+        default void onWindowChanged(int window) {
+        }
+
+        /**
+         * 熔断器状态变化：OPEN 时所有上传暂停，HALF_OPEN 时正在探测服务器
+         */
+        default void onCircuitStateChanged(CircuitBreaker.State state) {
+        }
+
+        /**
+         * 打包上传成功：每个文件的 URL 在对应的 Entry 中（打包会话不回调 onSuccess）
+         */
+        default void onBundleSuccess(List<UploadBundle.Entry> files) {
+        }
     }
 
     public FileUploadManager() {
-        this.executorService = Executors.newCachedThreadPool();
+        this(null);
+    }
+
+    /**
+     * @param origin 发起上传的页面，会话按页面保存和续传；null 表示不保存续传会话
+     */
+    public FileUploadManager(String origin) {
+        // 所有实例共享进程级调度器：全局并发窗口、按优先级和会话轮转分配分片名额
+        this(origin, UploadScheduler.getInstance(), ThroughputEstimator.getInstance(),
+                UploadTransport.getInstance(), UploadMetrics.getInstance(), UploadProgressBus.getInstance(),
+                BandwidthLimiter.getInstance(), null, DEFAULT_BASE_URL, true);
+    }
+
+    /**
+     * 指定上传引擎的全部进程级状态、续传会话数据库和服务器地址（基准测试用独立的实例，不影响应用中的上传和指标）
+     */
+    FileUploadManager(String origin, UploadScheduler scheduler, ThroughputEstimator estimator,
+                      UploadTransport transport, UploadMetrics metrics, UploadProgressBus progressBus,
+                      BandwidthLimiter limiter, UploadDatabase sessionStore, String baseUrl, boolean zeroCopy) {
+        this.origin = origin;
+        this.scheduler = scheduler;
+        this.estimator = estimator;
+        this.transport = transport;
+        this.metrics = metrics;
+        this.progressBus = progressBus;
+        this.limiter = limiter;
+        this.sessionStore = sessionStore;
+        this.baseUrl = baseUrl;
+        this.zeroCopy = zeroCopy;
         this.mainHandler = new Handler(Looper.getMainLooper());
     }
 
+    /**
+     * 获取本页面发起、尚未完成的上传会话（进程重启后用于续传）
+     */
+    public List<UploadSessionRecord> getPendingSessions(Context context) {
+        List<UploadSessionRecord> pending = new ArrayList<>();
+        if (origin == null) {
+            return pending;
+        }
+        UploadDatabase store = getSessionStore(context);
+        for (UploadSessionRecord session : store.getPendingSessions(origin)) {
+            if (ACTIVE_UPLOADS.contains(session.getFileId())) {
+                continue;
+            }
+            if (UploadBundle.isBundleUri(session.getUri())) {
+                // 打包会话的清单只在内存中，进程重启后无法续传，清理遗留数据
+                store.deleteSession(session.getFileId());
+                UploadBundle.deleteStale(session.getUri());
+                continue;
+            }
+            pending.add(session);
+        }
+        return pending;
+    }
+
+    /**
+     * 该 fileId 是否还有可续传的会话
+     */
+    public boolean isResumable(Context context, String fileId) {
+        return getSessionStore(context).getSession(fileId) != null;
+    }
+
     public void uploadFile(Context context, Uri fileUri, String fileId, UploadCallback callback) {
-        Log.d(TAG, "开始上传文件，fileId: " + fileId);
-        executorService.execute(() -> {
+        uploadFile(context, fileUri, fileId, UploadScheduler.Priority.NORMAL, callback);
+    }
+
+    /**
+     * 按指定优先级上传，INTERACTIVE（如聊天附件）的分片会排在批量上传之前发送
+     */
+    public void uploadFile(Context context, Uri fileUri, String fileId, UploadScheduler.Priority priority,
+                           UploadCallback callback) {
+        if (shutdown) {
+            notifyError(callback, "上传服务已关闭");
+            return;
+        }
+        if (!ACTIVE_UPLOADS.add(fileId)) {
+            Log.w(TAG, "fileId 已在上传中: " + fileId);
+            notifyError(callback, "该文件正在上传中");
+            return;
+        }
+        Log.d(TAG, "开始上传文件，fileId: " + fileId + ", 优先级: " + priority);
+        UploadDatabase store = getSessionStore(context);
+        // 准备阶段要读文件（哈希、压缩抽样），与分片一样在工作线程按优先级执行
+        scheduler.submit(fileId, priority, () -> startSession(context, fileUri, fileId, priority, store, callback, null));
+    }
+
+    /**
+     * 打包上传多个小文件：拼接成一个会话，一次注册、一次合并，成功后回调 onBundleSuccess
+     * 打包会话不跨进程续传，失败后需要重新打包上传
+     */
+    public void uploadBundle(Context context, List<Uri> fileUris, String bundleId, UploadScheduler.Priority priority,
+                             UploadCallback callback) {
+        if (shutdown) {
+            notifyError(callback, "上传服务已关闭");
+            return;
+        }
+        if (!ACTIVE_UPLOADS.add(bundleId)) {
+            Log.w(TAG, "bundleId 已在上传中: " + bundleId);
+            notifyError(callback, "该文件正在上传中");
+            return;
+        }
+        Log.d(TAG, "开始打包上传，bundleId: " + bundleId + ", 文件数: " + fileUris.size());
+        UploadDatabase store = getSessionStore(context);
+        // 打包要复制所有文件，与分片一样在工作线程按优先级执行，不占用控制线程
+        scheduler.submit(bundleId, priority, () -> {
+            UploadBundle bundle;
             try {
-                byte[] fileData = readFileData(context, fileUri);
-                if (fileData == null) {
-                    notifyError(callback, "无法读取文件");
-                    return;
-                }
+                bundle = UploadBundle.build(context, bundleId, fileUris);
+            } catch (IOException e) {
+                Log.e(TAG, "打包失败", e);
+                ACTIVE_UPLOADS.remove(bundleId);
+                notifyError(callback, "无法读取文件");
+                return;
+            }
+            startSession(context, Uri.fromFile(bundle.getFile()), bundleId, priority, store, callback, bundle);
+        });
+    }
 
-                String fileName = getFileName(context, fileUri);
-                long fileSize = fileData.length;
-                int totalChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
-                Log.d(TAG, "文件: " + fileName + ", 大小: " + fileSize + ", 分片: " + totalChunks);
+    /**
+     * 会话准备（在工作线程执行）：打开数据源、确定分片计划、计算内容哈希、抽样判断是否压缩
+     * 这些步骤都要读文件，不放在控制线程；准备完成后交给控制线程注册（attemptRegister）
+     */
+    private void startSession(Context context, Uri fileUri, String fileId, UploadScheduler.Priority priority,
+                              UploadDatabase store, UploadCallback callback, UploadBundle bundle) {
+        ChunkSource source;
+        try {
+            source = ChunkSource.open(context, fileUri);
+        } catch (Exception e) {
+            Log.e(TAG, "打开文件错误", e);
+            // 文件已不可读，会话无法续传
+            store.deleteSession(fileId);
+            if (bundle != null) {
+                bundle.delete();
+            }
+            ACTIVE_UPLOADS.remove(fileId);
+            notifyError(callback, "无法读取文件");
+            return;
+        }
 
-                // 诊断参数
-                ParameterDiagnostics.diagnoseRegisterRequest(fileId, totalChunks, fileName, fileSize);
+        UploadSession session = null;
+        try {
+            String fileName = bundle != null ? bundle.getFile().getName() : getFileName(context, fileUri);
+            long fileSize = source.size();
 
-                // 1. 注册上传 - 无限重试
-                while (!registerUpload(fileId, totalChunks, fileName, fileSize)) {
-                    Thread.sleep(1000);
-                }
-                Log.d(TAG, "注册成功");
+            // 续传：同一 fileId 且文件未变化时沿用原分片计划和已确认的分片
+            UploadSessionRecord record = origin != null ? store.getSession(fileId) : null;
+            if (record != null && !isSameSource(record, source)) {
+                Log.w(TAG, "文件已变化，丢弃续传会话: " + fileId);
+                store.deleteSession(fileId);
+                record = null;
+            }
+            ChunkPlan plan = record != null ? ChunkPlan.decode(record.getChunkPlan(), fileSize) : null;
+            if (plan != null && plan.getChunkCount() == record.getTotalChunks()) {
+                Log.d(TAG, "续传会话，已确认分片: " + record.getAckedCount() + "/" + plan.getChunkCount());
+            } else {
+                // 新会话：按当前测得的吞吐量和 RTT 选择分片大小
+                int chunkSize = estimator.recommendChunkSize();
+                plan = ChunkPlan.adaptive(fileSize, chunkSize, ThroughputEstimator.MIN_CHUNK_SIZE);
+                record = new UploadSessionRecord(fileId, fileUri.toString(), fileName, fileSize,
+                        chunkSize, plan.getChunkCount(), plan.encode(), null, System.currentTimeMillis());
+                record.setOrigin(origin);
+                record.setSourceModified(source.lastModified());
+                saveSession(store, record);
+            }
+            int totalChunks = plan.getChunkCount();
+            Log.d(TAG, "文件: " + fileName + ", 大小: " + fileSize + ", 分片: " + totalChunks
+                    + ", 分片大小: " + plan.getMaxChunkSize());
+            metrics.startSession(fileId, fileName, fileSize);
 
-                // 2. 准备分片
-                List<ChunkTask> tasks = new ArrayList<>();
-                for (int i = 0; i < totalChunks; i++) {
-                    int start = i * CHUNK_SIZE;
-                    int end = Math.min(start + CHUNK_SIZE, fileData.length);
-                    byte[] chunk = new byte[end - start];
-                    System.arraycopy(fileData, start, chunk, 0, chunk.length);
-                    tasks.add(new ChunkTask(fileId, i, chunk, totalChunks, fileName));
-                }
+            CongestionWindow window = scheduler.getWindow();
+            CongestionWindow.Listener windowListener = w -> notifyWindowChanged(callback, w);
+            CircuitBreaker.Listener breakerListener = state -> notifyCircuitStateChanged(callback, state);
+            session = new UploadSession(fileId, fileName, priority, plan, source, record, store, window,
+                    windowListener, breakerListener, callback);
+            session.bundle = bundle;
+            sessions.add(session);
+            if (shutdown && origin == null) {
+                failSession(session, "上传已取消");
+                return;
+            }
 
-                // 3. 并发上传分片
-                AtomicInteger completedChunks = new AtomicInteger(0);
-                AtomicInteger successfulChunks = new AtomicInteger(0);  // ✅ 新增：成功的分片数
-                AtomicBoolean uploadComplete = new AtomicBoolean(false);
-                AtomicBoolean hasError = new AtomicBoolean(false);
-                AtomicReference<String> finalUrl = new AtomicReference<>("");
-                AtomicReference<String> finalName = new AtomicReference<>("");
-                Semaphore semaphore = new Semaphore(MAX_CONCURRENT_UPLOADS);
-                CountDownLatch latch = new CountDownLatch(totalChunks);
-
-                for (ChunkTask task : tasks) {
-                    executorService.execute(() -> {
-                        try {
-                            semaphore.acquire();
-                            
-                            // ✅ 修复：只在有错误时提前退出，不因为 uploadComplete 退出
-                            // 原因：服务端可能错误地返回 200，但实际需要所有分片
-                            if (hasError.get()) {
-                                Log.d(TAG, "分片 " + task.chunkIndex + " - 跳过（已有错误）");
-                                return;
-                            }
-
-                            // 诊断分片参数
-                            ParameterDiagnostics.diagnoseChunkRequest(
-                                task.fileId, 
-                                task.chunkIndex, 
-                                task.totalChunks, 
-                                task.chunk.length
-                            );
-
-                            UploadResult result = uploadChunkWithRetry(task);
-                            
-                            // ✅ 验证后端是否正常处理分片
-                            if (result.code == 200) {
-                                // 服务器返回 200：可能是完成信号，但需要验证 URL
-                                Log.d(TAG, "分片 " + task.chunkIndex + " - 服务器返回 200");
-                                Log.d(TAG, "分片 " + task.chunkIndex + " - URL: " + result.url);
-                                
-                                // ✅ 关键修复：只有当 URL 不为空时，才认为是真正的完成信号
-                                if (result.url != null && !result.url.isEmpty()) {
-                                    Log.d(TAG, "分片 " + task.chunkIndex + " - 确认为完成信号（URL 有效）");
-                                    uploadComplete.set(true);
-                                    finalUrl.set(result.url);
-                                    finalName.set(result.fileName);
-                                } else {
-                                    Log.w(TAG, "分片 " + task.chunkIndex + " - 返回 200 但 URL 为空，视为普通成功");
-                                }
-                                successfulChunks.incrementAndGet();  // ✅ 计入成功
-                            } else if (result.code > 0 && result.code < 300) {
-                                // 分片上传成功（2xx 成功码，如 201）
-                                Log.d(TAG, "分片 " + task.chunkIndex + " - 后端正常处理（code: " + result.code + "）");
-                                successfulChunks.incrementAndGet();  // ✅ 计入成功
-                            } else if (result.code == 0) {
-                                // 上传失败（明确的失败）
-                                Log.e(TAG, "分片 " + task.chunkIndex + " - 上传失败（code: 0）: " + result.msg);
-                                hasError.set(true);
-                            } else if (result.code < 0) {
-                                // 未知错误（如网络错误、超时等）
-                                Log.e(TAG, "分片 " + task.chunkIndex + " - 未知错误（code: " + result.code + "）");
-                                hasError.set(true);
-                            } else {
-                                // 其他响应码（3xx, 4xx, 5xx）视为失败
-                                Log.e(TAG, "分片 " + task.chunkIndex + " - 后端返回错误码（code: " + result.code + "）");
-                                hasError.set(true);
-                            }
-
-                            int completed = completedChunks.incrementAndGet();
-                            int progress = (int) ((completed * 100.0) / totalChunks);
-                            notifyProgress(callback, progress);
-
-                        } catch (Exception e) {
-                            Log.e(TAG, "分片 " + task.chunkIndex + " - 上传异常", e);
-                            hasError.set(true);
-                        } finally {
-                            semaphore.release();
-                            latch.countDown();
-                        }
-                    });
+            // 秒传：尚未有分片被确认时计算内容哈希（续传会话沿用已保存的哈希；打包数据不做秒传）
+            if (bundle == null && record.getContentHash() == null && record.getAckedCount() == 0
+                    && ContentHasher.shouldHash(fileSize, estimator)) {
+                String contentHash = ContentHasher.sha256(source, ContentHasher.estimateUploadMillis(fileSize, estimator));
+                if (contentHash != null) {
+                    record.setContentHash(contentHash);
+                    saveSession(store, record);
                 }
+            }
 
-                latch.await();
+            // 可压缩文件在注册时提议 deflate，服务器确认后才压缩
+            session.offerCompression = ChunkCompressor.shouldCompress(context, fileName, source);
 
-                Log.d(TAG, "========== 所有分片任务完成 ==========");
-                Log.d(TAG, "已完成任务数: " + completedChunks.get() + "/" + totalChunks);
-                Log.d(TAG, "成功处理分片数: " + successfulChunks.get() + "/" + totalChunks);
-                Log.d(TAG, "是否有错误: " + hasError.get());
-                Log.d(TAG, "是否提前完成: " + uploadComplete.get());
+            // 诊断参数
+            ParameterDiagnostics.diagnoseRegisterRequest(fileId, totalChunks, fileName, fileSize);
+        } catch (Exception e) {
+            Log.e(TAG, "上传错误", e);
+            if (session != null) {
+                failSession(session, e.getMessage());
+                return;
+            }
+            source.close();
+            ACTIVE_UPLOADS.remove(fileId);
+            metrics.endSession(fileId, false);
+            if (bundle != null) {
+                store.deleteSession(fileId);
+                bundle.delete();
+            }
+            notifyError(callback, e.getMessage());
+            return;
+        }
+        UploadSession preparedSession = session;
+        scheduler.executeControl(priority, () -> attemptRegister(preparedSession));
+    }
 
-                // ✅ 关键检查：确保所有分片都被后端正常处理
-                if (hasError.get()) {
-                    Log.e(TAG, "========== 上传失败 ==========");
-                    Log.e(TAG, "原因：存在上传失败的分片");
-                    notifyError(callback, "部分分片上传失败");
-                    return;
-                }
+    /**
+     * 1. 注册上传（控制线程）：熔断打开或注册失败时由定时器重新安排，等待期间不占用控制线程
+     */
+    private void attemptRegister(UploadSession session) {
+        if (session.finished.get()) {
+            return;
+        }
+        if (session.cancelled.get()) {
+            failSession(session, "上传已取消");
+            return;
+        }
+        try {
+            long waitMillis = scheduler.getCircuitBreaker().tryAcquirePermission();
+            if (waitMillis > 0) {
+                scheduler.scheduleControl(session.priority, () -> attemptRegister(session), waitMillis);
+                return;
+            }
+            UploadResult registerResult = registerUpload(session.fileId, session.plan, session.fileName,
+                    session.record.getContentHash(), session.offerCompression, session.bundle);
+            if (registerResult.code == 200) {
+                Log.d(TAG, "注册成功");
+                enqueueChunks(session, registerResult);
+                return;
+            }
+            RetryPolicy retryPolicy = scheduler.getRetryPolicy();
+            session.registerAttempts++;
+            if (!retryPolicy.tryRetry(session.registerAttempts)) {
+                // 会话记录保留，之后可以续传
+                Log.e(TAG, "注册失败，已达最大重试次数");
+                failSession(session, "注册失败，已达最大重试次数");
+                return;
+            }
+            metrics.recordRetry(session.fileId, UploadMetrics.RetryCause.REGISTER);
+            long delay = retryPolicy.backoffMillis(session.registerAttempts);
+            Log.w(TAG, "注册失败，" + delay + "ms 后重试 #" + session.registerAttempts
+                    + "（累计重试 " + retryPolicy.getRetryCount() + "）");
+            scheduler.scheduleControl(session.priority, () -> attemptRegister(session), delay);
+        } catch (Exception e) {
+            Log.e(TAG, "上传错误", e);
+            failSession(session, e.getMessage());
+        }
+    }
 
-                if (successfulChunks.get() != totalChunks) {
-                    Log.e(TAG, "========== 上传失败 ==========");
-                    Log.e(TAG, "原因：成功分片数(" + successfulChunks.get() + ") != 总分片数(" + totalChunks + ")");
-                    notifyError(callback, "部分分片未被后端正常处理");
-                    return;
-                }
+    /**
+     * 注册成功后把未确认的分片描述符放入调度器队列；不等待分片完成，最后一个分片结束后由控制线程收尾（finishSession）
+     */
+    private void enqueueChunks(UploadSession session, UploadResult registerResult) {
+        String fileId = session.fileId;
+        UploadCallback callback = session.callback;
 
-                Log.d(TAG, "✅ 验证通过：所有 " + totalChunks + " 个分片都已被后端正常处理");
+        // 服务器已有相同内容：直接返回地址，跳过所有分片
+        if (registerResult.url != null && !registerResult.url.isEmpty()) {
+            Log.d(TAG, "========== 秒传命中，跳过上传 ==========");
+            Log.d(TAG, "回调URL: " + registerResult.url);
+            deleteSession(session);
+            notifyProgress(fileId, callback, 100);
+            if (endSession(session, true)) {
+                notifySuccess(callback, registerResult.url,
+                        registerResult.fileName.isEmpty() ? session.fileName : registerResult.fileName);
+            }
+            return;
+        }
 
-                // ✅ 修复：检查是否真正提前完成（必须有有效的 URL）
-                if (uploadComplete.get() && finalUrl.get() != null && !finalUrl.get().isEmpty()) {
-                    // 服务器真正完成了合并，有有效的 URL
-                    Log.d(TAG, "========== 服务器提前完成（跳过 merge） ==========");
-                    Log.d(TAG, "回调URL: " + finalUrl.get());
-                    Log.d(TAG, "回调文件名: " + finalName.get());
-                    notifySuccess(callback, finalUrl.get(), finalName.get());
-                    return;
-                } else if (uploadComplete.get()) {
-                    // 服务器返回了 200 但 URL 为空，这不是真正的完成
-                    Log.w(TAG, "========== 服务器返回 200 但 URL 为空 ==========");
-                    Log.w(TAG, "说明：服务器响应异常，将继续调用 merge 接口");
-                }
+        // 2. 准备分片（只记录区间，数据在上传时才读取；跳过服务器已确认的分片）
+        int totalChunks = session.totalChunks;
+        List<ChunkTask> tasks = new ArrayList<>();
+        for (int i = 0; i < totalChunks; i++) {
+            if (session.record.isChunkAcked(i)) {
+                continue;
+            }
+            tasks.add(new ChunkTask(fileId, i, session.plan.getOffset(i), session.plan.getLength(i),
+                    totalChunks, session.fileName));
+        }
 
-                // 4. 合并文件 - 无限重试
-                Log.d(TAG, "========== 开始调用 merge 接口 ==========");
-                Log.d(TAG, "原因：所有分片上传完成，需要合并");
-                
-                // 诊断合并参数
-                ParameterDiagnostics.diagnoseMergeRequest(fileId);
+        // 3. 分片描述符进入调度器的会话队列，与其他文件轮流占用全局并发窗口
+        session.compress = session.offerCompression
+                && ChunkCompressor.ENCODING.equals(registerResult.contentEncoding);
+        Log.d(TAG, "分片压缩: " + session.compress);
+        session.completedChunks.set(totalChunks - tasks.size());
+        session.successfulChunks.set(totalChunks - tasks.size());
+        session.pendingChunks.set(tasks.size());
+        scheduler.addWindowListener(session.windowListener);
+        scheduler.getCircuitBreaker().addListener(session.breakerListener);
+        notifyWindowChanged(callback, session.window.getWindow());
+
+        if (tasks.isEmpty()) {
+            finishSession(session);
+            return;
+        }
+        for (ChunkTask task : tasks) {
+            if (shutdown) {
+                // 已关闭：未入队的分片直接计为失败，会话保留以便续传
+                session.hasError.set(true);
+                onChunkDone(session);
+                continue;
+            }
+            scheduler.submit(fileId, session.priority, () -> runChunk(session, task));
+        }
+    }
+
+    private void runChunk(UploadSession session, ChunkTask task) {
+        boolean done = true;
+        try {
+            // ✅ 修复：只在有错误时提前退出，不因为 uploadComplete 退出
+            // 原因：服务端可能错误地返回 200，但实际需要所有分片
+            if (session.hasError.get()) {
+                Log.d(TAG, "分片 " + task.chunkIndex + " - 跳过（已有错误）");
+                return;
+            }
+
+            // 诊断分片参数
+            ParameterDiagnostics.diagnoseChunkRequest(
+                task.fileId, 
+                task.chunkIndex, 
+                task.totalChunks, 
+                task.length
+            );
+
+            UploadResult result = uploadChunkAttempt(session, task, () -> runChunk(session, task));
+            if (result == null) {
+                // 已重新入队（退避、熔断冷却），分片还没有结束
+                done = false;
+                return;
+            }
+            
+            // ✅ 验证后端是否正常处理分片
+            if (result.code == 200) {
+                // 服务器返回 200：可能是完成信号，但需要验证 URL
+                Log.d(TAG, "分片 " + task.chunkIndex + " - 服务器返回 200");
+                Log.d(TAG, "分片 " + task.chunkIndex + " - URL: " + result.url);
                 
-                MergeResult mergeResult;
-                int mergeAttempts = 0;
-                while (true) {
-                    mergeAttempts++;
-                    Log.d(TAG, "Merge 尝试 #" + mergeAttempts);
-                    
-                    mergeResult = mergeChunks(fileId);
-                    
-                    if (mergeResult.code == 200) {
-                        Log.d(TAG, "Merge 成功！");
-                        break;
-                    } else {
-                        Log.e(TAG, "Merge 失败，code: " + mergeResult.code + "，1秒后重试...");
-                    }
-                    
-                    Thread.sleep(1000);
+                // ✅ 关键修复：只有当 URL 不为空时，才认为是真正的完成信号
+                if (result.url != null && !result.url.isEmpty()) {
+                    Log.d(TAG, "分片 " + task.chunkIndex + " - 确认为完成信号（URL 有效）");
+                    session.uploadComplete.set(true);
+                    session.finalUrl.set(result.url);
+                    session.finalName.set(result.fileName);
+                } else {
+                    Log.w(TAG, "分片 " + task.chunkIndex + " - 返回 200 但 URL 为空，视为普通成功");
                 }
+                session.successfulChunks.incrementAndGet();  // ✅ 计入成功
+                markChunkAcked(session, task.chunkIndex);
+                metrics.recordPayload(task.fileId, task.length);
+            } else if (result.code > 0 && result.code < 300) {
+                // 分片上传成功（2xx 成功码，如 201）
+                Log.d(TAG, "分片 " + task.chunkIndex + " - 后端正常处理（code: " + result.code + "）");
+                session.successfulChunks.incrementAndGet();  // ✅ 计入成功
+                markChunkAcked(session, task.chunkIndex);
+                metrics.recordPayload(task.fileId, task.length);
+            } else if (result.code == 0) {
+                // 上传失败（明确的失败）
+                Log.e(TAG, "分片 " + task.chunkIndex + " - 上传失败（code: 0）: " + result.msg);
+                session.hasError.set(true);
+            } else if (result.code < 0) {
+                // 未知错误（如网络错误、超时等）
+                Log.e(TAG, "分片 " + task.chunkIndex + " - 未知错误（code: " + result.code + "）");
+                session.hasError.set(true);
+            } else {
+                // 其他响应码（3xx, 4xx, 5xx）视为失败
+                Log.e(TAG, "分片 " + task.chunkIndex + " - 后端返回错误码（code: " + result.code + "）");
+                session.hasError.set(true);
+            }
 
-                Log.d(TAG, "========== 准备回调成功 ==========");
-                Log.d(TAG, "回调URL: " + mergeResult.url);
-                Log.d(TAG, "回调文件名: " + fileName);
-                notifySuccess(callback, mergeResult.url, fileName);
+            int completed = session.completedChunks.incrementAndGet();
+            int progress = (int) ((completed * 100.0) / session.totalChunks);
+            notifyProgress(session.fileId, session.callback, progress);
 
-            } catch (Exception e) {
-                Log.e(TAG, "上传错误", e);
-                notifyError(callback, e.getMessage());
+        } catch (Exception e) {
+            Log.e(TAG, "分片 " + task.chunkIndex + " - 上传异常", e);
+            session.hasError.set(true);
+        } finally {
+            if (done) {
+                onChunkDone(session);
             }
-        });
+        }
     }
 
-    private byte[] readFileData(Context context, Uri uri) {
+    private void onChunkDone(UploadSession session) {
+        if (session.pendingChunks.decrementAndGet() == 0) {
+            // 合并可能重试较久，交给控制线程，不占用分片名额
+            scheduler.executeControl(session.priority, () -> finishSession(session));
+        }
+    }
+
+    /**
+     * 所有分片结束后的收尾：校验、提交合并、回调，在控制线程执行
+     */
+    private void finishSession(UploadSession session) {
+        String fileId = session.fileId;
+        int totalChunks = session.totalChunks;
         try {
-            InputStream is = context.getContentResolver().openInputStream(uri);
-            if (is == null) return null;
+            Log.d(TAG, "========== 所有分片任务完成 ==========");
+            Log.d(TAG, "已完成任务数: " + session.completedChunks.get() + "/" + totalChunks);
+            Log.d(TAG, "成功处理分片数: " + session.successfulChunks.get() + "/" + totalChunks);
+            Log.d(TAG, "是否有错误: " + session.hasError.get());
+            Log.d(TAG, "是否提前完成: " + session.uploadComplete.get());
+
+            if (session.cancelled.get()) {
+                failSession(session, "上传已取消");
+                return;
+            }
+
+            // ✅ 关键检查：确保所有分片都被后端正常处理
+            if (session.hasError.get()) {
+                Log.e(TAG, "========== 上传失败 ==========");
+                Log.e(TAG, "原因：存在上传失败的分片");
+                failSession(session, "部分分片上传失败");
+                return;
+            }
+
+            if (session.successfulChunks.get() != totalChunks) {
+                Log.e(TAG, "========== 上传失败 ==========");
+                Log.e(TAG, "原因：成功分片数(" + session.successfulChunks.get() + ") != 总分片数(" + totalChunks + ")");
+                failSession(session, "部分分片未被后端正常处理");
+                return;
+            }
 
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            byte[] data = new byte[8192];
-            int nRead;
-            while ((nRead = is.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, nRead);
+            Log.d(TAG, "✅ 验证通过：所有 " + totalChunks + " 个分片都已被后端正常处理");
+
+            // ✅ 修复：检查是否真正提前完成（必须有有效的 URL）
+            String finalUrl = session.finalUrl.get();
+            // 打包会话必须经过合并才能拿到每个文件的 URL
+            if (session.bundle == null && session.uploadComplete.get() && finalUrl != null && !finalUrl.isEmpty()) {
+                // 服务器真正完成了合并，有有效的 URL
+                Log.d(TAG, "========== 服务器提前完成（跳过 merge） ==========");
+                Log.d(TAG, "回调URL: " + finalUrl);
+                Log.d(TAG, "回调文件名: " + session.finalName.get());
+                MergeResult early = new MergeResult(200, finalUrl, session.finalName.get());
+                completeMerge(session, early);
+                return;
+            } else if (session.uploadComplete.get()) {
+                // 服务器返回了 200 但 URL 为空，这不是真正的完成
+                Log.w(TAG, "========== 服务器返回 200 但 URL 为空 ==========");
+                Log.w(TAG, "说明：服务器响应异常，将继续调用 merge 接口");
             }
-            is.close();
-            return buffer.toByteArray();
+
+            // 4. 合并文件 - 异步提交，之后轮询合并状态
+            Log.d(TAG, "========== 开始调用 merge 接口 ==========");
+            Log.d(TAG, "原因：所有分片上传完成，需要合并");
+            
+            // 诊断合并参数
+            ParameterDiagnostics.diagnoseMergeRequest(fileId);
+            
+            session.mergeDeadline = System.currentTimeMillis() + MERGE_TIMEOUT_MILLIS;
+            submitMerge(session);
         } catch (Exception e) {
-            Log.e(TAG, "读取文件错误", e);
-            return null;
+            Log.e(TAG, "上传错误", e);
+            failSession(session, e.getMessage());
+        }
+    }
+
+    /**
+     * 提交合并请求（要求异步合并）。服务器已完成时直接回调；返回 202 表示合并任务已受理，
+     * 之后由定时器按间隔查询状态，等待服务器拼装大文件期间不占用任何线程
+     */
+    private void submitMerge(UploadSession session) {
+        if (session.finished.get()) {
+            return;
+        }
+        if (session.cancelled.get()) {
+            failSession(session, "上传已取消");
+            return;
+        }
+        try {
+            long waitMillis = scheduler.getCircuitBreaker().tryAcquirePermission();
+            if (waitMillis > 0) {
+                // 熔断打开：到期后再提交，不阻塞控制线程
+                scheduler.scheduleControl(session.priority, () -> submitMerge(session), waitMillis);
+                return;
+            }
+            session.mergeAttempts++;
+            Log.d(TAG, "Merge 尝试 #" + session.mergeAttempts);
+            handleMergeResult(session, mergeChunks(session.fileId), false);
+        } catch (Exception e) {
+            Log.e(TAG, "上传错误", e);
+            failSession(session, e.getMessage());
+        }
+    }
+
+    /**
+     * 查询合并状态（定时器到期或收到服务器推送时执行）
+     */
+    private void pollMerge(UploadSession session) {
+        if (session.finished.get()) {
+            return;
+        }
+        if (session.cancelled.get()) {
+            failSession(session, "上传已取消");
+            return;
+        }
+        try {
+            if (System.currentTimeMillis() > session.mergeDeadline) {
+                Log.e(TAG, "合并超时: " + session.fileId);
+                failSession(session, "合并超时");
+                return;
+            }
+            long waitMillis = scheduler.getCircuitBreaker().tryAcquirePermission();
+            if (waitMillis > 0) {
+                schedulePoll(session, waitMillis);
+                return;
+            }
+            session.pollAttempts++;
+            handleMergeResult(session, queryMergeStatus(session.fileId), true);
+        } catch (Exception e) {
+            Log.e(TAG, "上传错误", e);
+            failSession(session, e.getMessage());
+        }
+    }
+
+    private void handleMergeResult(UploadSession session, MergeResult mergeResult, boolean polling) {
+        String fileId = session.fileId;
+        RetryPolicy retryPolicy = scheduler.getRetryPolicy();
+        if (mergeResult.code == 200) {
+            Log.d(TAG, "Merge 成功！");
+            completeMerge(session, mergeResult);
+        } else if (mergeResult.code == MERGE_PENDING) {
+            // 合并进行中：按服务器建议的间隔或逐步拉长的间隔再次查询
+            long delay = mergeResult.pollAfterMillis > 0
+                    ? Math.min(mergeResult.pollAfterMillis, MAX_POLL_INTERVAL_MILLIS)
+                    : pollInterval(session.pollAttempts);
+            Log.d(TAG, "合并进行中，" + delay + "ms 后查询状态");
+            schedulePoll(session, delay);
+        } else if (polling && mergeResult.code < 0) {
+            // 状态查询本身失败（网络错误等），合并任务仍在服务器上，稍后再查
+            schedulePoll(session, pollInterval(session.pollAttempts));
+        } else if (!mergeResult.missingChunks.isEmpty() && session.mergeAttempts < RetryPolicy.MAX_ATTEMPTS) {
+            // 服务器指出了缺失/损坏的分片：只重发这些分片，然后立即重新合并
+            Log.w(TAG, "Merge 失败，需重发分片: " + mergeResult.missingChunks);
+            for (int i = 0; i < mergeResult.missingChunks.size(); i++) {
+                metrics.recordRetry(fileId, UploadMetrics.RetryCause.MISSING_CHUNK);
+            }
+            resendChunks(session, mergeResult.missingChunks);
+        } else if (!retryPolicy.tryRetry(session.mergeAttempts)) {
+            Log.e(TAG, "Merge 失败，code: " + mergeResult.code + "，不再重试");
+            failSession(session, "合并失败");
+        } else {
+            metrics.recordRetry(fileId, UploadMetrics.RetryCause.MERGE);
+            long delay = retryPolicy.backoffMillis(session.mergeAttempts);
+            Log.e(TAG, "Merge 失败，code: " + mergeResult.code + "，" + delay + "ms 后重试"
+                    + "（累计重试 " + retryPolicy.getRetryCount() + "）");
+            scheduler.scheduleControl(session.priority, () -> submitMerge(session), delay);
+        }
+    }
+
+    private void schedulePoll(UploadSession session, long delayMillis) {
+        // 收到推送时在会话所属调度器的控制线程上立即查询
+        session.pollNow = () -> scheduler.executeControl(session.priority, () -> pollMerge(session));
+        PENDING_MERGES.put(session.fileId, session);
+        session.pendingPoll = scheduler.scheduleControl(session.priority, () -> pollMerge(session), delayMillis);
+    }
+
+    private static long pollInterval(int pollAttempts) {
+        double delay = MIN_POLL_INTERVAL_MILLIS * Math.pow(1.5, Math.max(0, pollAttempts - 1));
+        return (long) Math.min(delay, MAX_POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * 服务器推送合并完成（如通过聊天 WebSocket）：取消等待中的定时查询，立即查询一次确认结果
+     */
+    public static void onMergeNotification(String fileId) {
+        UploadSession session = PENDING_MERGES.get(fileId);
+        if (session == null || session.finished.get()) {
+            return;
+        }
+        ScheduledFuture<?> pendingPoll = session.pendingPoll;
+        if (pendingPoll != null && pendingPoll.cancel(false)) {
+            Log.d(TAG, "收到合并完成通知，立即查询: " + fileId);
+            session.pollNow.run();
+        }
+    }
+
+    private void completeMerge(UploadSession session, MergeResult mergeResult) {
+        String fileId = session.fileId;
+        UploadCallback callback = session.callback;
+        Log.d(TAG, "========== 准备回调成功 ==========");
+        Log.d(TAG, "回调URL: " + mergeResult.url);
+        Log.d(TAG, "回调文件名: " + session.fileName);
+        if (session.bundle != null) {
+            if (!session.bundle.applyMergeResult(mergeResult.files)) {
+                failSession(session, "服务器未返回拆分后的文件地址");
+                return;
+            }
+            deleteSession(session);
+            if (endSession(session, true)) {
+                notifyBundleSuccess(callback, session.bundle.getEntries());
+            }
+            return;
+        }
+        String fileName = mergeResult.fileName != null && !mergeResult.fileName.isEmpty()
+                ? mergeResult.fileName : session.fileName;
+        deleteSession(session);
+        if (endSession(session, true)) {
+            notifySuccess(callback, mergeResult.url, fileName);
+        }
+    }
+
+    private void failSession(UploadSession session, String error) {
+        if (endSession(session, false)) {
+            notifyError(session.callback, error);
+        }
+    }
+
+    /**
+     * 释放会话占用的资源（只执行一次），返回 false 表示会话已经结束过
+     */
+    private boolean endSession(UploadSession session, boolean succeeded) {
+        if (!session.finished.compareAndSet(false, true)) {
+            return false;
+        }
+        String fileId = session.fileId;
+        sessions.remove(session);
+        PENDING_MERGES.remove(fileId, session);
+        scheduler.removeWindowListener(session.windowListener);
+        scheduler.getCircuitBreaker().removeListener(session.breakerListener);
+        session.source.close();
+        ACTIVE_UPLOADS.remove(fileId);
+        metrics.endSession(fileId, succeeded);
+        if (session.bundle != null) {
+            if (!succeeded) {
+                deleteSession(session);
+            }
+            session.bundle.delete();
+        }
+        return true;
+    }
+
+    /**
+     * 把需要重发的分片作为普通分片任务放回工作线程队列（受并发窗口控制），全部成功后重新合并
+     */
+    private void resendChunks(UploadSession session, List<Integer> chunkIndexes) {
+        List<ChunkTask> tasks = new ArrayList<>();
+        for (int index : chunkIndexes) {
+            if (index >= session.totalChunks) {
+                Log.w(TAG, "忽略越界的分片序号: " + index);
+                continue;
+            }
+            tasks.add(new ChunkTask(session.fileId, index, session.plan.getOffset(index),
+                    session.plan.getLength(index), session.totalChunks, session.fileName));
+        }
+        if (tasks.isEmpty()) {
+            scheduler.executeControl(session.priority, () -> submitMerge(session));
+            return;
+        }
+        session.resendFailed.set(false);
+        session.pendingResends.set(tasks.size());
+        for (ChunkTask task : tasks) {
+            scheduler.submit(session.fileId, session.priority, () -> resendChunk(session, task));
         }
     }
 
+    private void resendChunk(UploadSession session, ChunkTask task) {
+        boolean done = true;
+        try {
+            if (!session.resendFailed.get() && !session.finished.get()) {
+                UploadResult result = uploadChunkAttempt(session, task, () -> resendChunk(session, task));
+                if (result == null) {
+                    done = false;
+                    return;
+                }
+                if (result.code <= 0 || result.code >= 300) {
+                    Log.e(TAG, "分片 " + task.chunkIndex + " 重发失败: " + result.msg);
+                    session.resendFailed.set(true);
+                } else {
+                    markChunkAcked(session, task.chunkIndex);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "分片 " + task.chunkIndex + " - 重发异常", e);
+            session.resendFailed.set(true);
+        } finally {
+            if (done && session.pendingResends.decrementAndGet() == 0) {
+                if (session.resendFailed.get()) {
+                    failSession(session, "分片重发失败");
+                } else {
+                    scheduler.executeControl(session.priority, () -> submitMerge(session));
+                }
+            }
+        }
+    }
+
+    /**
+     * 续传前确认数据源与会话创建时相同：大小一致，且修改时间一致；
+     * 修改时间未知时比较内容哈希，两者都无法比较时只能以大小为准
+     */
+    private boolean isSameSource(UploadSessionRecord record, ChunkSource source) throws IOException {
+        if (record.getFileSize() != source.size()) {
+            return false;
+        }
+        long modified = source.lastModified();
+        if (record.getSourceModified() > 0 && modified > 0) {
+            return record.getSourceModified() == modified;
+        }
+        if (record.getContentHash() != null) {
+            String contentHash = ContentHasher.sha256(source, ContentHasher.estimateUploadMillis(source.size(), estimator));
+            if (contentHash != null) {
+                return contentHash.equals(record.getContentHash());
+            }
+        }
+        Log.w(TAG, "无法确认文件是否变化，按大小续传: " + record.getFileId());
+        return true;
+    }
+
+    /**
+     * 保存续传会话；没有发起页面的会话不保存
+     */
+    private void saveSession(UploadDatabase store, UploadSessionRecord record) {
+        if (record.getOrigin() != null) {
+            store.saveSession(record);
+        }
+    }
+
+    private void markChunkAcked(UploadSession session, int chunkIndex) {
+        byte[] ackedBitmap = session.record.markChunkAcked(chunkIndex);
+        if (session.record.getOrigin() != null) {
+            // 与进度一起合并写入，不在每个分片完成时同步写库
+            progressBus.postAcked(session.fileId, ackedBitmap);
+        }
+    }
+
+    private void deleteSession(UploadSession session) {
+        progressBus.discardAcks(session.fileId);
+        session.store.deleteSession(session.fileId);
+    }
+
+    private UploadDatabase getSessionStore(Context context) {
+        return sessionStore != null ? sessionStore : UploadDatabase.getInstance(context);
+    }
+
     private String getFileName(Context context, Uri uri) {
         String fileName = "unknown_file";
         try {
@@ -272,116 +857,211 @@ public class FileUploadManager {
         } catch (Exception e) {
             Log.e(TAG, "获取文件名错误", e);
         }
+        // file:// Uri（如缩放后的缓存图片）没有 DISPLAY_NAME，取路径最后一段
+        if ("unknown_file".equals(fileName) && "file".equals(uri.getScheme()) && uri.getLastPathSegment() != null) {
+            fileName = uri.getLastPathSegment();
+        }
         return fileName;
     }
 
-    private boolean registerUpload(String fileId, int totalChunks, String fileName, long fileSize) {
-        HttpURLConnection conn = null;
+    /**
+     * 注册上传，code == 200 表示成功；携带内容哈希且服务器已有该内容时返回的 url 不为空（秒传）
+     * 打包会话在请求体中附带清单
+     */
+    private UploadResult registerUpload(String fileId, ChunkPlan plan, String fileName, String contentHash,
+                                        boolean offerCompression, UploadBundle bundle) {
+        int totalChunks = plan.getChunkCount();
+        long fileSize = plan.getFileSize();
         try {
             Log.d(TAG, "========== 注册上传 ==========");
-            Log.d(TAG, "请求URL: " + UPLOAD_REGISTER_URL);
+            Log.d(TAG, "请求URL: " + baseUrl + UPLOAD_REGISTER_PATH);
             Log.d(TAG, "File-Id: " + fileId);
             Log.d(TAG, "Total-Chunks: " + totalChunks);
             Log.d(TAG, "File-Name: " + fileName);
             Log.d(TAG, "File-Size: " + fileSize);
-            
-            URL url = new URL(UPLOAD_REGISTER_URL);
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
+            Log.d(TAG, "File-Hash: " + contentHash);
             
             // 完全对齐服务器端请求头处理
             // 所有必需的请求头
-            conn.setRequestProperty("X-File-Id", fileId);
-            conn.setRequestProperty("X-Total-Chunks", String.valueOf(totalChunks));
-            conn.setRequestProperty("X-File-Name", URLEncoder.encode(fileName, "UTF-8"));
-            conn.setRequestProperty("X-File-Size", String.valueOf(fileSize));
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("Accept", "application/json");
-            
-            conn.setConnectTimeout(10000);
-            conn.setReadTimeout(10000);
+            Request.Builder builder = new Request.Builder()
+                    .url(baseUrl + UPLOAD_REGISTER_PATH)
+                    .post(bundle != null
+                            ? RequestBody.create(bundle.manifestJson(), JSON)
+                            : RequestBody.create(new byte[0], JSON))
+                    .header("X-File-Id", fileId)
+                    .header("X-Total-Chunks", String.valueOf(totalChunks))
+                    .header("X-File-Name", URLEncoder.encode(fileName, "UTF-8"))
+                    .header("X-File-Size", String.valueOf(fileSize))
+                    // 分片大小可变：X-Chunk-Size 为稳定分片大小，X-Chunk-Plan 给出每个分片的长度
+                    .header("X-Chunk-Size", String.valueOf(plan.getMaxChunkSize()))
+                    .header("X-Chunk-Plan", plan.encode())
+                    .header("Accept", "application/json");
+            if (contentHash != null) {
+                builder.header("X-File-Hash", "sha256:" + contentHash);
+            }
+            if (bundle != null) {
+                builder.header("X-Upload-Mode", "bundle");
+                builder.header("X-Bundle-Files", String.valueOf(bundle.getEntries().size()));
+            }
+            if (offerCompression) {
+                // 提议分片压缩，服务器在响应的 content_encoding 中确认
+                builder.header("X-Content-Encoding", ChunkCompressor.ENCODING);
+            }
+            Request request = builder.build();
 
-            int responseCode = conn.getResponseCode();
-            Log.d(TAG, "注册响应码: " + responseCode);
-            
-            // 对齐服务器端响应处理
-            if (responseCode == 200) {
-                String response = readResponse(conn);
-                Log.d(TAG, "注册响应体: " + response);
-                
-                if (response == null || response.isEmpty()) {
-                    Log.e(TAG, "注册响应为空");
-                    return false;
+            long startTime = System.currentTimeMillis();
+            try (Response response = execute(transport.controlClient(), request)) {
+                long elapsed = System.currentTimeMillis() - startTime;
+                estimator.recordRtt(elapsed);
+                metrics.recordRegister(fileId, elapsed);
+                int responseCode = response.code();
+                Log.d(TAG, "注册响应码: " + responseCode);
+                String body = readBody(response);
+
+                // 对齐服务器端响应处理
+                if (responseCode == 200) {
+                    Log.d(TAG, "注册响应体: " + body);
+                    
+                    if (body.isEmpty()) {
+                        Log.e(TAG, "注册响应为空");
+                        return new UploadResult(-1, "", "", "注册响应为空");
+                    }
+                    
+                    JSONObject json = new JSONObject(body);
+                    int code = json.optInt("code", -1);
+                    String msg = json.optString("msg", "");
+                    Log.d(TAG, "解析结果 - code: " + code + ", msg: " + msg);
+                    
+                    UploadResult result = new UploadResult(code, json.optString("url", ""), json.optString("name", ""), msg);
+                    result.contentEncoding = json.optString("content_encoding", "");
+                    return result;
+                } else {
+                    Log.e(TAG, "注册失败，响应码: " + responseCode + ", 错误: " + body);
+                    return new UploadResult(-1, "", "", body);
                 }
-                
-                JSONObject json = new JSONObject(response);
-                int code = json.optInt("code", -1);
-                String msg = json.optString("msg", "");
-                Log.d(TAG, "解析结果 - code: " + code + ", msg: " + msg);
-                
-                return code == 200;
-            } else {
-                // 读取错误响应
-                String errorResponse = readErrorResponse(conn);
-                Log.e(TAG, "注册失败，响应码: " + responseCode + ", 错误: " + errorResponse);
-                return false;
             }
         } catch (Exception e) {
             Log.e(TAG, "注册错误", e);
-            return false;
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
+            return new UploadResult(-1, "", "", e.getMessage());
         }
     }
 
-    private UploadResult uploadChunkWithRetry(ChunkTask task) {
-        int retries = 0;
-        while (retries < MAX_RETRIES) {
-            HttpURLConnection conn = null;
-            try {
-                URL url = new URL(UPLOAD_SAVE_URL);
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setDoOutput(true);
-                
-                // 完全对齐服务器端请求头处理
-                // 所有必需的请求头
-                conn.setRequestProperty("X-File-Id", task.fileId);
-                conn.setRequestProperty("X-Chunk-Index", String.valueOf(task.chunkIndex));
-                conn.setRequestProperty("X-Total-Chunks", String.valueOf(task.totalChunks));
-                conn.setRequestProperty("X-Chunk-Size", String.valueOf(task.chunk.length));
-                conn.setRequestProperty("Content-Type", "application/octet-stream");
-                conn.setRequestProperty("Content-Length", String.valueOf(task.chunk.length));
-                conn.setRequestProperty("Accept", "application/json");
-                
-                conn.setConnectTimeout(30000);
-                conn.setReadTimeout(30000);
-
-                // 写入分片数据
-                OutputStream os = conn.getOutputStream();
-                os.write(task.chunk);
-                os.flush();
-                os.close();
+    /**
+     * 发送一次分片请求（在工作线程执行，从不阻塞等待）：熔断打开或窗口已满时把任务放回会话队列，
+     * 可重试的失败按退避时间延时重新入队，这两种情况返回 null，由 rerun 继续；其余返回最终结果
+     * 分片数据在拿到名额后才读取，等待期间不占用内存、工作线程和并发名额
+     */
+    private UploadResult uploadChunkAttempt(UploadSession session, ChunkTask task, Runnable rerun) {
+        RetryPolicy retryPolicy = scheduler.getRetryPolicy();
+        CircuitBreaker circuitBreaker = scheduler.getCircuitBreaker();
+        CongestionWindow window = session.window;
+        ChunkSource source = session.source;
+        boolean compress = session.compress;
+        UploadMetrics.RetryCause retryCause = UploadMetrics.RetryCause.NETWORK;
+        // 熔断打开时所有会话的分片都在定时器里等待冷却结束，之后才申请并发名额
+        long waitMillis = circuitBreaker.tryAcquirePermission();
+        if (waitMillis > 0) {
+            scheduler.submitDelayed(session.fileId, session.priority, rerun, waitMillis);
+            return null;
+        }
+        // 只有真正拿到探测名额的请求才在未发出时归还，不能释放别人的探测
+        boolean probe = waitMillis == CircuitBreaker.PERMITTED_PROBE;
+        if (!window.tryAcquire()) {
+            // 出队后窗口又收缩了：放回队列，等在途分片结束后再取
+            if (probe) {
+                circuitBreaker.cancelProbe();
+            }
+            scheduler.submit(session.fileId, session.priority, rerun);
+            return null;
+        }
+        boolean windowReleased = false;
+        boolean requestSent = false;
+        try {
+            String crc32c;
+            byte[] compressed = null;
+            RequestBody body;
+            if (compress || !zeroCopy) {
+                // 压缩需要完整的分片数据；X-Chunk-Size 和校验和始终对应原始数据
+                byte[] chunk = source.readChunk(task.offset, task.length);
+                crc32c = Crc32c.toHex(Crc32c.of(chunk, 0, chunk.length));
+                compressed = compress ? ChunkCompressor.compress(chunk) : null;
+                body = RequestBody.create(compressed != null ? compressed : chunk, OCTET_STREAM);
+            } else {
+                // 校验和必须在请求头中先于请求体发出（OkHttp 不支持请求 trailer），所以分片区间会被读两次：
+                // 先用线程内复用的缓冲区算校验和，发送时再 transferTo；第二次读取命中页缓存，
+                // 额外开销主要是 CRC 计算本身（见 UploadBenchmark.runZeroCopyComparison 的 crcPass）
+                // 校验和只算一次，退避重试和校验失败重发时复用
+                if (task.regionCrc32c == null) {
+                    task.regionCrc32c = Crc32c.toHex(Crc32c.of(source, task.offset, task.length));
+                }
+                crc32c = task.regionCrc32c;
+                body = new ChunkRegionBody(source, task.offset, task.length, OCTET_STREAM);
+            }
+            long bodyLength = body.contentLength();
+            
+            // 完全对齐服务器端请求头处理
+            // 所有必需的请求头（Content-Length 由请求体确定）
+            Request.Builder builder = new Request.Builder()
+                    .url(baseUrl + UPLOAD_SAVE_PATH)
+                    .post(limiter.wrap(body))
+                    .header("X-File-Id", task.fileId)
+                    .header("X-Chunk-Index", String.valueOf(task.chunkIndex))
+                    .header("X-Total-Chunks", String.valueOf(task.totalChunks))
+                    .header("X-Chunk-Size", String.valueOf(task.length))
+                    .header("X-Chunk-Offset", String.valueOf(task.offset))
+                    .header("X-Chunk-Crc32c", crc32c)
+                    .header("Accept", "application/json");
+            if (compressed != null) {
+                builder.header("Content-Encoding", ChunkCompressor.ENCODING);
+            }
+            Request request = builder.build();
 
-                int responseCode = conn.getResponseCode();
+            long startTime = System.currentTimeMillis();
+            requestSent = true;
+            metrics.recordWire(task.fileId, bodyLength);
+            try (Response httpResponse = execute(transport.chunkClient(), request)) {
+                int responseCode = httpResponse.code();
+                String response = readBody(httpResponse);
+                long elapsed = System.currentTimeMillis() - startTime;
+                metrics.recordSave(task.fileId, elapsed);
                 Log.d(TAG, "分片 " + task.chunkIndex + " 响应码: " + responseCode);
+
+                // 校验和不一致：只重发这个分片（重新读取数据），不计入拥塞，也不退避
+                if (isChecksumMismatch(responseCode, response, crc32c)) {
+                    window.release();
+                    windowReleased = true;
+                    task.crcResends++;
+                    Log.w(TAG, "分片 " + task.chunkIndex + " 校验和不一致（本地 " + crc32c + "），重发 #" + task.crcResends);
+                    if (task.crcResends > MAX_CRC_RESENDS) {
+                        return new UploadResult(0, "", "", "分片 " + task.chunkIndex + " 校验失败");
+                    }
+                    metrics.recordRetry(task.fileId, UploadMetrics.RetryCause.CHECKSUM_MISMATCH);
+                    scheduler.submit(session.fileId, session.priority, rerun);
+                    return null;
+                }
                 
                 // 对齐服务器端响应处理
                 if (responseCode == 200) {
-                    String response = readResponse(conn);
                     Log.d(TAG, "分片 " + task.chunkIndex + " 响应体: " + response);
                     
-                    if (response == null || response.isEmpty()) {
+                    if (response.isEmpty()) {
                         Log.e(TAG, "分片 " + task.chunkIndex + " 响应为空");
-                        conn.disconnect();
-                        continue;
+                        retryCause = UploadMetrics.RetryCause.BAD_RESPONSE;
+                        throw new IOException("分片响应为空");
                     }
                     
+                    retryCause = UploadMetrics.RetryCause.BAD_RESPONSE;
                     JSONObject json = new JSONObject(response);
                     int code = json.optInt("code", -1);
                     String msg = json.optString("msg", "");
+                    if (code > 0 && code < 300) {
+                        estimator.recordChunk(bodyLength, elapsed);
+                        window.onSuccess(bodyLength, elapsed);
+                    } else {
+                        // 业务失败不是拥塞信号
+                        window.release();
+                    }
+                    windowReleased = true;
 
                     Log.d(TAG, "========== 分片 " + task.chunkIndex + " 响应解析 ==========");
                     Log.d(TAG, "code: " + code);
@@ -395,211 +1075,357 @@ public class FileUploadManager {
                         Log.d(TAG, "url: " + fileUrl);
                         Log.d(TAG, "name: " + fileName);
                         Log.d(TAG, "说明：服务器已自动完成合并，无需调用 merge 接口");
-                        conn.disconnect();
                         return new UploadResult(code, fileUrl, fileName, "");
                     } else if (code == 0) {
                         // 上传失败
                         Log.e(TAG, "========== 分片上传失败（code == 0） ==========");
                         Log.e(TAG, "msg: " + msg);
-                        conn.disconnect();
                         return new UploadResult(code, "", "", msg);
                     } else if (code > 0 && code < 300) {
                         // 分片上传成功（2xx 成功码，如 201）
                         Log.d(TAG, "========== 分片上传成功（code == " + code + "） ==========");
                         Log.d(TAG, "说明：后端已正常处理此分片");
                         Log.d(TAG, "说明：所有分片上传完成后，将调用 merge 接口");
-                        conn.disconnect();
                         return new UploadResult(code, "", "", "");
                     } else {
                         // 其他响应码视为失败
                         Log.e(TAG, "========== 分片上传失败（code == " + code + "） ==========");
                         Log.e(TAG, "msg: " + msg);
                         Log.e(TAG, "说明：后端返回了非成功的响应码");
-                        conn.disconnect();
                         return new UploadResult(0, "", "", "后端返回非成功响应码: " + code);
                     }
                 } else {
-                    // 读取错误响应
-                    String errorResponse = readErrorResponse(conn);
-                    Log.e(TAG, "分片 " + task.chunkIndex + " 失败，响应码: " + responseCode + ", 错误: " + errorResponse);
-                }
-                
-            } catch (Exception e) {
-                Log.e(TAG, "分片 " + task.chunkIndex + " 错误，重试 " + retries, e);
-            } finally {
-                if (conn != null) {
-                    conn.disconnect();
+                    Log.e(TAG, "分片 " + task.chunkIndex + " 失败，响应码: " + responseCode + ", 错误: " + response);
+                    retryCause = UploadMetrics.RetryCause.HTTP_ERROR;
                 }
             }
             
-            retries++;
-            try {
-                Thread.sleep(1000 * Math.min(retries, 5));
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+        } catch (Exception e) {
+            Log.e(TAG, "分片 " + task.chunkIndex + " 错误，第 " + (task.attempts + 1) + " 次尝试", e);
+        } finally {
+            if (!windowReleased) {
+                window.onFailure();
+            }
+            if (!requestSent && probe) {
+                circuitBreaker.cancelProbe();
             }
         }
         
-        return new UploadResult(0, "", "", "达到最大重试次数");
+        task.attempts++;
+        if (!retryPolicy.tryRetry(task.attempts)) {
+            Log.e(TAG, "分片 " + task.chunkIndex + " 不再重试（尝试 " + task.attempts + " 次，剩余预算 "
+                    + String.format("%.1f", retryPolicy.getBudget()) + "）");
+            return new UploadResult(0, "", "", "达到最大重试次数");
+        }
+        metrics.recordRetry(task.fileId, retryCause);
+        long delay = retryPolicy.backoffMillis(task.attempts);
+        Log.w(TAG, "分片 " + task.chunkIndex + " " + delay + "ms 后重试 #" + task.attempts
+                + "（累计重试 " + retryPolicy.getRetryCount() + "）");
+        // 退避期间不占用工作线程，到期后重新进入会话队列
+        scheduler.submitDelayed(session.fileId, session.priority, rerun, delay);
+        return null;
     }
 
     private MergeResult mergeChunks(String fileId) {
-        HttpURLConnection conn = null;
-        try {
-            Log.d(TAG, "========== 合并文件 ==========");
-            Log.d(TAG, "请求URL: " + UPLOAD_MERGE_URL);
-            Log.d(TAG, "File-Id: " + fileId);
-            
-            URL url = new URL(UPLOAD_MERGE_URL);
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            
-            // 完全对齐服务器端请求头处理
-            // 所有必需的请求头
-            conn.setRequestProperty("X-File-Id", fileId);
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("Accept", "application/json");
-            
-            // 可能需要的额外请求头
-            conn.setDoOutput(false);  // 合并请求不需要发送数据
-            
-            conn.setConnectTimeout(30000);
-            conn.setReadTimeout(30000);
+        Log.d(TAG, "========== 合并文件 ==========");
+        Log.d(TAG, "请求URL: " + baseUrl + UPLOAD_MERGE_PATH);
+        Log.d(TAG, "File-Id: " + fileId);
+        
+        // 完全对齐服务器端请求头处理
+        // 所有必需的请求头（合并请求不需要发送数据）
+        // X-Merge-Mode: async 请求服务器受理后立即返回 202，不支持的服务器按原方式同步合并
+        Request request = new Request.Builder()
+                .url(baseUrl + UPLOAD_MERGE_PATH)
+                .post(RequestBody.create(new byte[0], JSON))
+                .header("X-File-Id", fileId)
+                .header("X-Merge-Mode", "async")
+                .header("Accept", "application/json")
+                .build();
+        return executeMerge(fileId, request, true);
+    }
 
-            int responseCode = conn.getResponseCode();
-            Log.d(TAG, "合并响应码: " + responseCode);
-            
-            // 对齐服务器端响应处理
-            if (responseCode == 200) {
-                String response = readResponse(conn);
-                Log.d(TAG, "合并响应体: " + response);
-                
-                if (response == null || response.isEmpty()) {
-                    Log.e(TAG, "合并响应为空");
-                    return new MergeResult(-1, "", "");
+    /**
+     * 查询异步合并的状态，响应格式与合并接口相同（202 表示仍在进行）
+     */
+    private MergeResult queryMergeStatus(String fileId) {
+        Log.d(TAG, "查询合并状态: " + fileId);
+        Request request = new Request.Builder()
+                .url(baseUrl + UPLOAD_MERGE_STATUS_PATH)
+                .get()
+                .header("X-File-Id", fileId)
+                .header("Accept", "application/json")
+                .build();
+        return executeMerge(fileId, request, false);
+    }
+
+    private MergeResult executeMerge(String fileId, Request request, boolean recordLatency) {
+        try {
+            // 同步合并大文件耗时较长，使用 30 秒读超时
+            long startTime = System.currentTimeMillis();
+            try (Response httpResponse = execute(transport.chunkClient(), request)) {
+                if (recordLatency) {
+                    metrics.recordMerge(fileId, System.currentTimeMillis() - startTime);
                 }
+                int responseCode = httpResponse.code();
+                Log.d(TAG, "合并响应码: " + responseCode);
+                String response = readBody(httpResponse);
                 
-                JSONObject json = new JSONObject(response);
-                int code = json.optInt("code", -1);
-                String msg = json.optString("msg", "");
-                String fileUrl = json.optString("url", "");
-                
-                Log.d(TAG, "解析结果 - code: " + code + ", msg: " + msg + ", url: " + fileUrl);
-                
-                if (code == 200) {
-                    Log.d(TAG, "========== 合并成功 ==========");
-                    Log.d(TAG, "最终URL: " + fileUrl);
-                    return new MergeResult(code, fileUrl, "");
+                // 对齐服务器端响应处理
+                if (responseCode == 200 || responseCode == MERGE_PENDING) {
+                    Log.d(TAG, "合并响应体: " + response);
+                    
+                    if (response.isEmpty()) {
+                        if (responseCode == MERGE_PENDING) {
+                            return new MergeResult(MERGE_PENDING, "", "");
+                        }
+                        Log.e(TAG, "合并响应为空");
+                        return new MergeResult(-1, "", "");
+                    }
+                    
+                    JSONObject json = new JSONObject(response);
+                    int code = json.optInt("code", responseCode == MERGE_PENDING ? MERGE_PENDING : -1);
+                    String msg = json.optString("msg", "");
+                    String fileUrl = json.optString("url", "");
+                    
+                    Log.d(TAG, "解析结果 - code: " + code + ", msg: " + msg + ", url: " + fileUrl);
+                    
+                    if (code == 200) {
+                        Log.d(TAG, "========== 合并成功 ==========");
+                        Log.d(TAG, "最终URL: " + fileUrl);
+                        MergeResult result = new MergeResult(code, fileUrl, json.optString("name", ""));
+                        result.files = json.optJSONArray("files");
+                        return result;
+                    } else if (code == MERGE_PENDING) {
+                        MergeResult result = new MergeResult(code, "", "");
+                        result.pollAfterMillis = json.optLong("poll_after", 0);
+                        return result;
+                    } else {
+                        Log.e(TAG, "合并失败 - code: " + code + ", msg: " + msg);
+                        MergeResult result = new MergeResult(code, "", "");
+                        addChunkIndexes(json.optJSONArray("missing"), result.missingChunks);
+                        addChunkIndexes(json.optJSONArray("corrupt"), result.missingChunks);
+                        return result;
+                    }
                 } else {
-                    Log.e(TAG, "合并失败 - code: " + code + ", msg: " + msg);
-                    return new MergeResult(code, "", "");
+                    Log.e(TAG, "合并失败，响应码: " + responseCode + ", 错误: " + response);
+                    return new MergeResult(-1, "", "");
                 }
-            } else {
-                // 读取错误响应
-                String errorResponse = readErrorResponse(conn);
-                Log.e(TAG, "合并失败，响应码: " + responseCode + ", 错误: " + errorResponse);
-                return new MergeResult(-1, "", "");
             }
         } catch (Exception e) {
             Log.e(TAG, "合并错误", e);
             return new MergeResult(-1, "", "");
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
+        }
+    }
+
+    private void addChunkIndexes(JSONArray array, List<Integer> out) {
+        if (array == null) {
+            return;
+        }
+        for (int i = 0; i < array.length(); i++) {
+            int index = array.optInt(i, -1);
+            if (index >= 0 && !out.contains(index)) {
+                out.add(index);
             }
         }
     }
 
-    private String readResponse(HttpURLConnection conn) {
-        BufferedReader reader = null;
+    /**
+     * 服务器返回 422，或在响应中回显了与本地不同的 crc32c，表示分片在传输中损坏
+     */
+    private boolean isChecksumMismatch(int responseCode, String response, String crc32c) {
+        if (responseCode == HTTP_CHECKSUM_MISMATCH) {
+            return true;
+        }
+        if (responseCode != 200 || response.isEmpty()) {
+            return false;
+        }
         try {
-            reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-            return response.toString();
+            String serverCrc = new JSONObject(response).optString("crc32c", "");
+            return !serverCrc.isEmpty() && !serverCrc.equalsIgnoreCase(crc32c);
         } catch (Exception e) {
-            Log.e(TAG, "读取响应错误", e);
-            return null;
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (Exception e) {
-                    Log.e(TAG, "关闭 reader 错误", e);
-                }
-            }
+            return false;
         }
     }
-    
-    private String readErrorResponse(HttpURLConnection conn) {
-        BufferedReader reader = null;
+
+    /**
+     * 执行请求并把结果反馈给熔断器和重试预算：网络错误和 5xx 视为服务器不可用
+     */
+    private Response execute(OkHttpClient client, Request request) throws IOException {
+        CircuitBreaker circuitBreaker = scheduler.getCircuitBreaker();
+        Response response;
         try {
-            InputStream errorStream = conn.getErrorStream();
-            if (errorStream == null) {
-                return "无错误详情";
-            }
-            reader = new BufferedReader(new InputStreamReader(errorStream, "UTF-8"));
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-            return response.toString();
+            response = client.newCall(request).execute();
+        } catch (IOException e) {
+            circuitBreaker.onFailure();
+            throw e;
+        }
+        if (response.code() >= 500) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+            scheduler.getRetryPolicy().onSuccess();
+        }
+        return response;
+    }
+
+    private String readBody(Response response) {
+        try {
+            ResponseBody body = response.body();
+            return body != null ? body.string() : "";
         } catch (Exception e) {
-            Log.e(TAG, "读取错误响应错误", e);
-            return "无法读取错误详情";
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (Exception e) {
-                    Log.e(TAG, "关闭 error reader 错误", e);
-                }
-            }
+            Log.e(TAG, "读取响应错误", e);
+            return "";
         }
     }
 
-    private void notifyProgress(UploadCallback callback, int progress) {
-        mainHandler.post(() -> callback.onProgress(progress));
+    /**
+     * 进度经过总线合并后再派发到主线程，并由总线批量持久化
+     */
+    private void notifyProgress(String fileId, UploadCallback callback, int progress) {
+        progressBus.post(fileId, callback, progress);
     }
 
     private void notifySuccess(UploadCallback callback, String url, String fileName) {
-        mainHandler.post(() -> callback.onSuccess(url, fileName));
+        mainHandler.post(() -> {
+            progressBus.discard(callback);
+            callback.onSuccess(url, fileName);
+        });
+    }
+
+    private void notifyBundleSuccess(UploadCallback callback, List<UploadBundle.Entry> files) {
+        mainHandler.post(() -> {
+            progressBus.discard(callback);
+            callback.onBundleSuccess(files);
+        });
+    }
+
+    private void notifyWindowChanged(UploadCallback callback, int window) {
+        mainHandler.post(() -> callback.onWindowChanged(window));
+    }
+
+    private void notifyCircuitStateChanged(UploadCallback callback, CircuitBreaker.State state) {
+        mainHandler.post(() -> callback.onCircuitStateChanged(state));
     }
 
     private void notifyError(UploadCallback callback, String error) {
-        mainHandler.post(() -> callback.onError(error));
+        mainHandler.post(() -> {
+            progressBus.discard(callback);
+            callback.onError(error);
+        });
     }
 
+    /**
+     * 停止接受新的上传（页面销毁时调用）
+     * 保存了续传会话的上传继续在后台完成并持久化进度（调度器是进程级的，不随页面销毁）；
+     * 不保存续传的会话（聊天附件）没有页面能接管，直接取消并回调 onError。
+     * 两种情况下回调都可能在页面销毁后到达，调用方需要在回调里检查页面状态
+     */
     public void shutdown() {
-        executorService.shutdown();
+        shutdown = true;
+        if (origin != null) {
+            return;
+        }
+        for (UploadSession session : sessions) {
+            if (session.cancelled.compareAndSet(false, true)) {
+                Log.d(TAG, "取消上传: " + session.fileId);
+                // 排队中的分片直接跳过，进行中的分片结束后由收尾流程报告失败
+                session.hasError.set(true);
+            }
+        }
     }
 
     private static class ChunkTask {
         String fileId;
         int chunkIndex;
-        byte[] chunk;
+        long offset;
+        int length;
         int totalChunks;
         String fileName;
+        // 重试状态，任务重新入队时保留（同一时刻只有一个线程处理该任务）
+        int attempts = 0;
+        int crcResends = 0;
+        // 文件区间请求体的校验和（文件在上传期间不变，重发时不再读一遍）
+        String regionCrc32c;
 
-        ChunkTask(String fileId, int chunkIndex, byte[] chunk, int totalChunks, String fileName) {
+        ChunkTask(String fileId, int chunkIndex, long offset, int length, int totalChunks, String fileName) {
             this.fileId = fileId;
             this.chunkIndex = chunkIndex;
-            this.chunk = chunk;
+            this.offset = offset;
+            this.length = length;
             this.totalChunks = totalChunks;
             this.fileName = fileName;
         }
     }
 
+    /**
+     * 运行中的上传会话：在各工作线程之间共享的计数和状态
+     */
+    private static class UploadSession {
+        final String fileId;
+        final String fileName;
+        final UploadScheduler.Priority priority;
+        final int totalChunks;
+        final ChunkPlan plan;
+        final ChunkSource source;
+        final UploadSessionRecord record;
+        final UploadDatabase store;
+        final CongestionWindow window;
+        final CongestionWindow.Listener windowListener;
+        final CircuitBreaker.Listener breakerListener;
+        final UploadCallback callback;
+        // 抽样判断可压缩，注册时提议 deflate
+        boolean offerCompression = false;
+        // 注册时协商成功后对分片做 deflate 压缩
+        boolean compress = false;
+        int registerAttempts = 0;
+        // 打包上传时的清单，普通上传为 null
+        UploadBundle bundle;
+        // 异步合并状态
+        int mergeAttempts = 0;
+        int pollAttempts = 0;
+        long mergeDeadline;
+        volatile ScheduledFuture<?> pendingPoll;
+        volatile Runnable pollNow;
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        // 发起页面已销毁，不再继续
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final AtomicInteger pendingChunks = new AtomicInteger(0);
+        // 合并失败后重发中的分片
+        final AtomicInteger pendingResends = new AtomicInteger(0);
+        final AtomicBoolean resendFailed = new AtomicBoolean(false);
+        final AtomicInteger completedChunks = new AtomicInteger(0);
+        final AtomicInteger successfulChunks = new AtomicInteger(0);
+        final AtomicBoolean uploadComplete = new AtomicBoolean(false);
+        final AtomicBoolean hasError = new AtomicBoolean(false);
+        final AtomicReference<String> finalUrl = new AtomicReference<>("");
+        final AtomicReference<String> finalName = new AtomicReference<>("");
+
+        UploadSession(String fileId, String fileName, UploadScheduler.Priority priority, ChunkPlan plan,
+                      ChunkSource source, UploadSessionRecord record, UploadDatabase store, CongestionWindow window,
+                      CongestionWindow.Listener windowListener, CircuitBreaker.Listener breakerListener,
+                      UploadCallback callback) {
+            this.fileId = fileId;
+            this.fileName = fileName;
+            this.priority = priority;
+            this.totalChunks = plan.getChunkCount();
+            this.plan = plan;
+            this.source = source;
+            this.record = record;
+            this.store = store;
+            this.window = window;
+            this.windowListener = windowListener;
+            this.breakerListener = breakerListener;
+            this.callback = callback;
+        }
+    }
+
     private static class UploadResult {
         int code;
         String url;
         String fileName;
         String msg;
+        // 注册响应：服务器接受的分片编码
+        String contentEncoding = "";
 
         UploadResult(int code, String url, String fileName, String msg) {
             this.code = code;
@@ -613,6 +1439,12 @@ public class FileUploadManager {
         int code;
         String url;
         String fileName;
+        // 服务器报告缺失或校验失败的分片，需要重发
+        List<Integer> missingChunks = new ArrayList<>();
+        // 打包会话：按清单顺序拆分后的文件地址
+        JSONArray files;
+        // 异步合并进行中时服务器建议的查询间隔
+        long pollAfterMillis;
 
         MergeResult(int code, String url, String fileName) {
             this.code = code;
@@ -0,0 +1,107 @@
+package com.example.demoapp.upload;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图（毫秒）- HDR 风格的对数-线性分桶
+ * 每个 2 的幂区间分 8 个子桶，相对误差不超过 12.5%；记录只做原子自增，不分配内存
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 上限约 2^30 ms（12 天），超出的值计入最后一个桶
+    private static final int MAX_EXPONENT = 30;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalMillis.addAndGet(value);
+        maxMillis.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return maxMillis.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalMillis.get() / count;
+    }
+
+    /**
+     * 百分位数（0~1），返回所在桶的上界，不超过记录到的最大值
+     */
+    public long getPercentile(double p) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxMillis.get());
+            }
+        }
+        return maxMillis.get();
+    }
+
+    /**
+     * 把另一个直方图的数据累加进来（用于汇总）
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long n = other.counts.get(i);
+            if (n > 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        totalMillis.addAndGet(other.totalMillis.get());
+        maxMillis.accumulateAndGet(other.maxMillis.get(), Math::max);
+    }
+
+    public String summary() {
+        if (getCount() == 0) {
+            return "n=0";
+        }
+        return String.format(Locale.ROOT, "n=%d p50=%dms p90=%dms p99=%dms max=%dms",
+                getCount(), getPercentile(0.50), getPercentile(0.90), getPercentile(0.99), getMax());
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT && value >= (2L << MAX_EXPONENT)) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + sub) * width + width - 1;
+    }
+}
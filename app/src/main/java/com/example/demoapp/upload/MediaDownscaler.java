@@ -0,0 +1,249 @@
+package com.example.demoapp.upload;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 上传前的图片缩放 - 聊天里的图片按目标尺寸缩小并重新编码为 JPEG 后再上传
+ * 在后台线程处理，结果写入缓存目录，分片上传直接按偏移读取该文件；原图不受影响，可选择发送原图
+ */
+public class MediaDownscaler {
+    private static final String TAG = "MediaDownscaler";
+    private static final String CACHE_DIR = "upload_media";
+
+    /**
+     * 缩放参数
+     */
+    public static class Options {
+        /** 长边上限（像素） */
+        public int maxEdge = 2048;
+        /** JPEG 质量 */
+        public int jpegQuality = 82;
+        /** 小于该大小的图片直接上传 */
+        public long minBytes = 512 * 1024;
+    }
+
+    public interface Callback {
+        /**
+         * 在主线程回调；downscaled 为 false 时 uploadUri 就是原始 Uri
+         */
+        void onReady(Uri uploadUri, boolean downscaled);
+    }
+
+    private static final MediaDownscaler INSTANCE = new MediaDownscaler();
+
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile Options options = new Options();
+
+    public static MediaDownscaler getInstance() {
+        return INSTANCE;
+    }
+
+    private MediaDownscaler() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "media-downscaler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setOptions(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * 是否为可缩放的静态图片（GIF 等动图保持原样）
+     */
+    public static boolean isDownscalable(Context context, Uri uri) {
+        String type = context.getContentResolver().getType(uri);
+        return type != null && type.startsWith("image/") && !type.equals("image/gif");
+    }
+
+    /**
+     * 准备要上传的 Uri：sendOriginal 为 true、不是图片或缩放没有收益时返回原始 Uri
+     */
+    public void prepare(Context context, Uri uri, boolean sendOriginal, Callback callback) {
+        Context appContext = context.getApplicationContext();
+        if (sendOriginal || !isDownscalable(appContext, uri)) {
+            callback.onReady(uri, false);
+            return;
+        }
+        Options opts = options;
+        executor.execute(() -> {
+            Uri result = null;
+            try {
+                result = downscale(appContext, uri, opts);
+            } catch (Exception | OutOfMemoryError e) {
+                Log.e(TAG, "图片缩放失败，发送原图", e);
+            }
+            Uri uploadUri = result != null ? result : uri;
+            boolean downscaled = result != null;
+            mainHandler.post(() -> callback.onReady(uploadUri, downscaled));
+        });
+    }
+
+    /**
+     * 删除 prepare 生成的缓存文件（上传结束后调用）；原始 Uri 不受影响
+     */
+    public void release(Context context, Uri uploadUri) {
+        if (!"file".equals(uploadUri.getScheme()) || uploadUri.getPath() == null) {
+            return;
+        }
+        File file = new File(uploadUri.getPath());
+        File cacheRoot = new File(context.getCacheDir(), CACHE_DIR);
+        File dir = file.getParentFile();
+        if (dir != null && cacheRoot.equals(dir.getParentFile())) {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    private Uri downscale(Context context, Uri uri, Options opts) throws IOException {
+        long originalSize = querySize(context, uri);
+        if (originalSize >= 0 && originalSize < opts.minBytes) {
+            return null;
+        }
+
+        // 1. 只读取尺寸
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        int longEdge = Math.max(width, height);
+        if (longEdge <= opts.maxEdge && originalSize >= 0 && originalSize < opts.minBytes * 4) {
+            return null;
+        }
+
+        // 2. 按 2 的幂降采样解码，避免把原图完整解码进内存
+        BitmapFactory.Options decode = new BitmapFactory.Options();
+        decode.inSampleSize = 1;
+        while (longEdge / (decode.inSampleSize * 2) >= opts.maxEdge) {
+            decode.inSampleSize *= 2;
+        }
+        Bitmap bitmap;
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            bitmap = BitmapFactory.decodeStream(in, null, decode);
+        }
+        if (bitmap == null) {
+            return null;
+        }
+
+        // 3. 精确缩放到长边上限，并按 EXIF 方向旋转（重新编码会丢失 EXIF）
+        Matrix matrix = new Matrix();
+        float scale = Math.min(1f, (float) opts.maxEdge / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        matrix.postScale(scale, scale);
+        int rotation = readRotation(context, uri);
+        if (rotation != 0) {
+            matrix.postRotate(rotation);
+        }
+        if (scale < 1f || rotation != 0) {
+            Bitmap transformed = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+            if (transformed != bitmap) {
+                bitmap.recycle();
+                bitmap = transformed;
+            }
+        }
+
+        // 4. 编码到缓存文件，文件名保留原名（扩展名改为 .jpg），服务器端显示的文件名不变
+        File dir = new File(new File(context.getCacheDir(), CACHE_DIR), UUID.randomUUID().toString());
+        if (!dir.mkdirs()) {
+            bitmap.recycle();
+            throw new IOException("无法创建缓存目录: " + dir);
+        }
+        File output = new File(dir, jpegName(queryName(context, uri)));
+        try (OutputStream out = new FileOutputStream(output)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, opts.jpegQuality, out);
+        } finally {
+            bitmap.recycle();
+        }
+
+        if (originalSize >= 0 && output.length() >= originalSize) {
+            Log.d(TAG, "缩放后没有变小，发送原图");
+            output.delete();
+            dir.delete();
+            return null;
+        }
+        Log.d(TAG, "图片缩放: " + width + "x" + height + " " + originalSize + "B -> " + output.length() + "B");
+        return Uri.fromFile(output);
+    }
+
+    private int readRotation(Context context, Uri uri) {
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            if (in == null) {
+                return 0;
+            }
+            int orientation = new ExifInterface(in).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private long querySize(Context context, Uri uri) {
+        try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int index = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (index != -1 && !cursor.isNull(index)) {
+                    return cursor.getLong(index);
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "获取文件大小失败: " + uri);
+        }
+        return -1;
+    }
+
+    private String queryName(Context context, Uri uri) {
+        try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int index = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                if (index != -1 && cursor.getString(index) != null) {
+                    return cursor.getString(index);
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "获取文件名失败: " + uri);
+        }
+        return "image";
+    }
+
+    private static String jpegName(String name) {
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return base + ".jpg";
+    }
+}
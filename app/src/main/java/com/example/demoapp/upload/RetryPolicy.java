@@ -0,0 +1,69 @@
+package com.example.demoapp.upload;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 上传重试策略 - 有上限的指数退避 + 完全抖动（full jitter）+ 重试预算
+ * 抖动让大量客户端在服务器恢复时错开重试；预算限制重试占正常请求的比例，
+ * 服务器持续失败时由熔断器暂停，而不是所有会话一起重试
+ */
+public class RetryPolicy {
+    private static final long BASE_DELAY_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 30_000;
+    // 单次操作（注册、一个分片、合并）的最大尝试次数
+    public static final int MAX_ATTEMPTS = 10;
+    // 重试预算：每次成功请求补充 0.2 个重试令牌，最多积累 MAX_BUDGET 个
+    private static final double BUDGET_PER_SUCCESS = 0.2;
+    private static final double MAX_BUDGET = 50;
+
+    private double budget = MAX_BUDGET;
+    private long retryCount = 0;
+    private long budgetExhaustedCount = 0;
+
+    /**
+     * 第 attempt 次失败（从 1 开始）后的等待时间：[0, min(上限, 基数 × 2^(attempt-1))) 内均匀随机
+     */
+    public long backoffMillis(int attempt) {
+        int shift = Math.min(Math.max(attempt - 1, 0), 20);
+        long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << shift);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * 第 attempt 次失败后是否还可以重试；可以时消耗一个预算令牌
+     */
+    public synchronized boolean tryRetry(int attempt) {
+        if (attempt >= MAX_ATTEMPTS) {
+            return false;
+        }
+        if (budget < 1) {
+            budgetExhaustedCount++;
+            return false;
+        }
+        budget -= 1;
+        retryCount++;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        budget = Math.min(MAX_BUDGET, budget + BUDGET_PER_SUCCESS);
+    }
+
+    /**
+     * 累计重试次数
+     */
+    public synchronized long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * 因预算耗尽而放弃的次数
+     */
+    public synchronized long getBudgetExhaustedCount() {
+        return budgetExhaustedCount;
+    }
+
+    public synchronized double getBudget() {
+        return budget;
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.demoapp.upload;
+
+import android.util.Log;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分段并行下载 - 把文件按 Range 拆成多段并发获取，每段通过 FileChannel 定位写入预分配文件的对应偏移
+ * 段大小按单段吞吐量调整（约 2 秒一段）；并发数从 2 开始，新增一段后总吞吐仍有明显提升才继续增加，
+ * 链路饱和后不再增加；续传时只下载尚未完成的区间，每段落盘后通过 CheckpointListener 记录
+ */
+class SegmentedDownload {
+    private static final String TAG = "SegmentedDownload";
+
+    static final int INITIAL_PARALLELISM = 2;
+    static final int MAX_PARALLELISM = 6;
+    private static final long INITIAL_SEGMENT_SIZE = 1024 * 1024;
+    private static final long MIN_SEGMENT_SIZE = 256 * 1024;
+    private static final long MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final long TARGET_SEGMENT_MILLIS = 2000;
+    // 增加并发后总吞吐提升超过该比例才继续增加
+    private static final double GROWTH_THRESHOLD = 1.15;
+    private static final double ALPHA = 0.3;
+    private static final int MAX_SEGMENT_ATTEMPTS = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    interface ProgressListener {
+        void onProgress(long downloaded, long total);
+    }
+
+    /**
+     * 区间 [start, end) 已写入并同步到磁盘
+     */
+    interface CheckpointListener {
+        void onRangeCompleted(long start, long end);
+    }
+
+    private final String fileUrl;
+    private final long size;
+    private final String validator;
+    private final List<long[]> missing;
+    private final ExecutorService executor;
+    private final ProgressListener listener;
+    private final AtomicLong downloaded;
+    private CheckpointListener checkpointListener;
+
+    private FileChannel channel;
+    // 以下字段由 this 保护
+    private int missingIndex = 0;
+    private long nextOffset;
+    private int workers = 0;
+    private int runningWorkers = 0;
+    private double perWorkerBytesPerSecond = -1;
+    private double throughputAtLastGrowth = -1;
+    private boolean growthStopped = false;
+    private IOException failure;
+
+    /**
+     * @param validator If-Range 校验值，资源在下载过程中变化时服务器返回 200，下载以 ResumeMismatchException 失败；null 表示不校验
+     * @param missing 需要下载的区间 [start, end)，按起点排序
+     * @param completed 已完成的字节数（用于进度）
+     */
+    SegmentedDownload(String fileUrl, long size, String validator, List<long[]> missing, long completed,
+                      ExecutorService executor, ProgressListener listener) {
+        this.fileUrl = fileUrl;
+        this.size = size;
+        this.validator = validator;
+        this.missing = missing;
+        this.executor = executor;
+        this.listener = listener;
+        this.downloaded = new AtomicLong(completed);
+        this.nextOffset = missing.isEmpty() ? size : missing.get(0)[0];
+    }
+
+    void setCheckpointListener(CheckpointListener checkpointListener) {
+        this.checkpointListener = checkpointListener;
+    }
+
+    /**
+     * 下载到 partFile（预分配为完整大小），全部分段完成后返回，任一分段最终失败则抛出异常
+     */
+    void run(RandomAccessFile partFile) throws IOException, InterruptedException {
+        partFile.setLength(size);
+        channel = partFile.getChannel();
+        synchronized (this) {
+            for (int i = 0; i < INITIAL_PARALLELISM; i++) {
+                startWorker();
+            }
+            while (runningWorkers > 0) {
+                wait();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        Log.d(TAG, "分段下载完成: " + size + " 字节, 最大并发 " + workers);
+    }
+
+    // 调用方持有 this
+    private void startWorker() {
+        workers++;
+        runningWorkers++;
+        executor.execute(this::workerLoop);
+    }
+
+    private void workerLoop() {
+        try {
+            long[] range;
+            while ((range = nextRange()) != null) {
+                long start = System.currentTimeMillis();
+                fetchRange(range[0], range[1]);
+                onSegmentDone(range[1] - range[0] + 1, System.currentTimeMillis() - start);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "分段下载失败", e);
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                runningWorkers--;
+                notifyAll();
+            }
+        }
+    }
+
+    // 调用方持有 this
+    private boolean hasMoreRanges() {
+        while (missingIndex < missing.size() && nextOffset >= missing.get(missingIndex)[1]) {
+            missingIndex++;
+            if (missingIndex < missing.size()) {
+                nextOffset = missing.get(missingIndex)[0];
+            }
+        }
+        return missingIndex < missing.size();
+    }
+
+    /**
+     * 领取下一段 [start, end]；段长按单段吞吐量估算，所在缺失区间剩余不足一段最小值时并入当前段
+     */
+    private synchronized long[] nextRange() {
+        if (failure != null || !hasMoreRanges()) {
+            return null;
+        }
+        long gapEnd = missing.get(missingIndex)[1];
+        long length = perWorkerBytesPerSecond > 0
+                ? (long) (perWorkerBytesPerSecond * TARGET_SEGMENT_MILLIS / 1000)
+                : INITIAL_SEGMENT_SIZE;
+        length = Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, length));
+        if (gapEnd - nextOffset - length < MIN_SEGMENT_SIZE) {
+            length = gapEnd - nextOffset;
+        }
+        long[] range = {nextOffset, nextOffset + length - 1};
+        nextOffset += length;
+        return range;
+    }
+
+    /**
+     * 分段完成：更新单段吞吐量，并判断是否再增加一个并发
+     */
+    private synchronized void onSegmentDone(long bytes, long millis) {
+        double rate = bytes * 1000.0 / Math.max(millis, 1);
+        perWorkerBytesPerSecond = perWorkerBytesPerSecond < 0
+                ? rate : ALPHA * rate + (1 - ALPHA) * perWorkerBytesPerSecond;
+        if (growthStopped || workers >= MAX_PARALLELISM || !hasMoreRanges()) {
+            return;
+        }
+        double throughput = perWorkerBytesPerSecond * runningWorkers;
+        if (throughputAtLastGrowth < 0 || throughput > throughputAtLastGrowth * GROWTH_THRESHOLD) {
+            throughputAtLastGrowth = throughput;
+            startWorker();
+            Log.d(TAG, "并发增加到 " + workers + "，估计吞吐 " + (long) throughput / 1024 + " KB/s");
+        } else {
+            growthStopped = true;
+            Log.d(TAG, "吞吐不再提升，并发保持 " + workers);
+        }
+    }
+
+    /**
+     * 获取一段并定位写入；中途断开时从已写入的位置继续请求剩余部分，最终失败时记录已写入的部分
+     */
+    private void fetchRange(long start, long end) throws IOException {
+        long position = start;
+        int attempts = 0;
+        while (position <= end) {
+            try {
+                position = fetchOnce(position, end);
+            } catch (PartialRangeException e) {
+                position = e.position;
+                attempts++;
+                if (attempts >= MAX_SEGMENT_ATTEMPTS) {
+                    checkpoint(start, position);
+                    throw e;
+                }
+                Log.w(TAG, "分段 " + start + "-" + end + " 中断于 " + position + "，重试 #" + attempts);
+                try {
+                    Thread.sleep(500L * attempts);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    checkpoint(start, position);
+                    throw new IOException("下载被中断", ie);
+                }
+            }
+        }
+        checkpoint(start, end + 1);
+    }
+
+    /**
+     * 先同步文件再记录区间，记录的区间一定已落盘
+     */
+    private void checkpoint(long start, long end) throws IOException {
+        if (checkpointListener == null || end <= start) {
+            return;
+        }
+        channel.force(false);
+        checkpointListener.onRangeCompleted(start, end);
+    }
+
+    private long fetchOnce(long start, long end) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(fileUrl).openConnection();
+        long position = start;
+        try {
+            conn.setRequestMethod("GET");
+            conn.setConnectTimeout(30000);
+            conn.setReadTimeout(30000);
+            conn.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            if (validator != null) {
+                conn.setRequestProperty("If-Range", validator);
+            }
+            int responseCode = conn.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK && validator != null) {
+                throw new FileDownloadManager.ResumeMismatchException("资源已变化（If-Range 不匹配）");
+            }
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Range 请求未返回 206: " + responseCode);
+            }
+            // 起点或总大小不一致的响应不能写入，否则会拼接出损坏的文件
+            String contentRange = conn.getHeaderField("Content-Range");
+            long[] range = FileDownloadManager.parseContentRange(contentRange);
+            if (range == null || range[0] != start || (range[2] >= 0 && range[2] != size)) {
+                throw new FileDownloadManager.ResumeMismatchException("Content-Range 与请求不一致: " + contentRange);
+            }
+            byte[] data = BUFFER.get();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            try (InputStream is = conn.getInputStream()) {
+                int nRead;
+                while (position <= end
+                        && (nRead = is.read(data, 0, (int) Math.min(data.length, end - position + 1))) != -1) {
+                    buffer.clear();
+                    buffer.limit(nRead);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    listener.onProgress(downloaded.addAndGet(nRead), size);
+                }
+            }
+            if (position <= end) {
+                throw new IOException("分段响应不完整: " + position + "/" + end);
+            }
+            return position;
+        } catch (FileDownloadManager.ResumeMismatchException e) {
+            throw e;
+        } catch (IOException e) {
+            // 已写入的部分保留，重试时从 position 继续
+            throw new PartialRangeException(e, position);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * 携带已写入位置的异常，用于分段内续传
+     */
+    private static class PartialRangeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final long position;
+
+        PartialRangeException(IOException cause, long position) {
+            super(cause.getMessage(), cause);
+            this.position = position;
+        }
+    }
+}
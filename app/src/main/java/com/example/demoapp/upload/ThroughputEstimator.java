@@ -0,0 +1,95 @@
+package com.example.demoapp.upload;
+
+/**
+ * 上传吞吐量估计器 - 根据已完成分片的耗时和注册请求的 RTT 选择分片大小
+ * 进程内共享，后续会话沿用之前的测量结果
+ */
+public class ThroughputEstimator {
+    public static final int MIN_CHUNK_SIZE = 128 * 1024;
+    public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+
+    // 单个分片的目标耗时：足够长以摊薄请求开销，又远小于 30 秒读超时
+    private static final long TARGET_CHUNK_MILLIS = 2000;
+    private static final long MAX_CHUNK_MILLIS = 7500;
+    // 请求开销（约一个 RTT）占分片耗时的比例上限
+    private static final int RTT_MULTIPLIER = 8;
+    private static final int CHUNK_ALIGNMENT = 64 * 1024;
+    private static final double ALPHA = 0.3;
+
+    private static final ThroughputEstimator INSTANCE = new ThroughputEstimator();
+
+    private double bytesPerSecond = -1;
+    private double rttMillis = -1;
+    // 大于 0 时固定使用该分片大小（基准测试扫描分片大小）
+    private int fixedChunkSize = 0;
+
+    public static ThroughputEstimator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 记录一次成功的分片上传
+     */
+    public synchronized void recordChunk(long bytes, long elapsedMillis) {
+        if (bytes <= 0 || elapsedMillis <= 0) {
+            return;
+        }
+        double sample = bytes * 1000.0 / elapsedMillis;
+        bytesPerSecond = bytesPerSecond < 0 ? sample : ALPHA * sample + (1 - ALPHA) * bytesPerSecond;
+    }
+
+    /**
+     * 记录一次无负载请求（如注册）的往返时间
+     */
+    public synchronized void recordRtt(long elapsedMillis) {
+        if (elapsedMillis <= 0) {
+            return;
+        }
+        rttMillis = rttMillis < 0 ? elapsedMillis : ALPHA * elapsedMillis + (1 - ALPHA) * rttMillis;
+    }
+
+    /**
+     * 固定分片大小，传 0 恢复自适应
+     */
+    public synchronized void setFixedChunkSize(int chunkSize) {
+        fixedChunkSize = Math.max(0, chunkSize);
+    }
+
+    /**
+     * 清空测量数据
+     */
+    public synchronized void reset() {
+        bytesPerSecond = -1;
+        rttMillis = -1;
+    }
+
+    public synchronized double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized double getRttMillis() {
+        return rttMillis;
+    }
+
+    /**
+     * 推荐的分片大小，没有测量数据时返回默认值
+     */
+    public synchronized int recommendChunkSize() {
+        if (fixedChunkSize > 0) {
+            return fixedChunkSize;
+        }
+        if (bytesPerSecond <= 0) {
+            return DEFAULT_CHUNK_SIZE;
+        }
+        long targetMillis = TARGET_CHUNK_MILLIS;
+        if (rttMillis > 0) {
+            targetMillis = Math.max(targetMillis, (long) (rttMillis * RTT_MULTIPLIER));
+        }
+        targetMillis = Math.min(targetMillis, MAX_CHUNK_MILLIS);
+
+        long size = (long) (bytesPerSecond * targetMillis / 1000);
+        size = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+        return (int) (size / CHUNK_ALIGNMENT * CHUNK_ALIGNMENT);
+    }
+}
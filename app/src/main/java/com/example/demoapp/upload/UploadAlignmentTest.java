@@ -20,6 +20,13 @@ public class UploadAlignmentTest {
      * - X-Total-Chunks
      * - X-File-Name (URL 编码)
      * - X-Chunk-Index
+     * - X-Chunk-Plan（注册时的分片计划，分片大小可变）
+     * - X-Chunk-Offset
+     * - X-File-Hash（注册时的内容哈希，用于秒传）
+     * - X-Chunk-Crc32c（分片校验和）
+     * - X-Content-Encoding（注册时提议分片压缩）/ Content-Encoding: deflate
+     * - X-Upload-Mode: bundle / X-Bundle-Files（打包上传，注册请求体为文件清单）
+     * - X-Merge-Mode: async（合并受理后返回 202，客户端轮询合并状态）
      */
     public static void testRequestHeaders() {
         Log.d(TAG, "========== 测试请求头对齐 ==========");
@@ -27,6 +34,13 @@ public class UploadAlignmentTest {
         Log.d(TAG, "✓ X-Total-Chunks: 已实现");
         Log.d(TAG, "✓ X-File-Name: 已实现（URL 编码）");
         Log.d(TAG, "✓ X-Chunk-Index: 已实现");
+        Log.d(TAG, "✓ X-Chunk-Plan: 已实现（可变分片大小）");
+        Log.d(TAG, "✓ X-Chunk-Offset: 已实现");
+        Log.d(TAG, "✓ X-File-Hash: 已实现（秒传）");
+        Log.d(TAG, "✓ X-Chunk-Crc32c: 已实现（校验失败只重发该分片）");
+        Log.d(TAG, "✓ Content-Encoding: 已实现（注册时协商，可压缩文件才启用）");
+        Log.d(TAG, "✓ X-Upload-Mode: 已实现（小文件打包，合并响应 files 数组返回各文件 URL）");
+        Log.d(TAG, "✓ X-Merge-Mode: 已实现（异步合并，202 后查询 /api/upload/merge/status）");
         Log.d(TAG, "✓ Content-Type: 已实现");
         Log.d(TAG, "✓ Content-Length: 已实现");
     }
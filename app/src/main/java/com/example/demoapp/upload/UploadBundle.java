@@ -0,0 +1,204 @@
+package com.example.demoapp.upload;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 小文件打包上传 - 把多个小文件顺序拼接成一个数据文件，作为一个上传会话发送
+ * 注册时在请求体中附带清单（每个文件的名称、偏移量、大小），服务器合并时按清单拆分，
+ * 在合并响应的 files 数组中按清单顺序返回每个文件的 URL
+ */
+public class UploadBundle {
+    private static final String TAG = "UploadBundle";
+    private static final String BUNDLE_DIR = "upload_bundle";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    // 单个文件不超过此大小才参与打包
+    public static final long MAX_FILE_SIZE = 1024 * 1024;
+    // 每个包的总大小和文件数上限
+    public static final long MAX_BUNDLE_SIZE = 32 * 1024 * 1024;
+    public static final int MAX_FILES = 500;
+    // 至少这么多个小文件才打包，否则单独上传
+    public static final int MIN_FILES = 2;
+
+    /**
+     * 包内的一个文件
+     */
+    public static class Entry {
+        private final int index;
+        private final String uri;
+        private final String name;
+        private final long offset;
+        private final long size;
+        private String url = "";
+
+        Entry(int index, String uri, String name, long offset, long size) {
+            this.index = index;
+            this.uri = uri;
+            this.name = name;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        public int getIndex() { return index; }
+        public String getUri() { return uri; }
+        public String getName() { return name; }
+        public long getOffset() { return offset; }
+        public long getSize() { return size; }
+        public String getUrl() { return url; }
+    }
+
+    private final String bundleId;
+    private final File file;
+    private final List<Entry> entries;
+
+    private UploadBundle(String bundleId, File file, List<Entry> entries) {
+        this.bundleId = bundleId;
+        this.file = file;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * 该大小的文件是否适合打包
+     */
+    public static boolean isBundleCandidate(long size) {
+        return size > 0 && size <= MAX_FILE_SIZE;
+    }
+
+    /**
+     * 按顺序把文件拼接到缓存目录的数据文件中，记录每个文件的偏移量和实际大小
+     */
+    public static UploadBundle build(Context context, String bundleId, List<Uri> uris) throws IOException {
+        File dir = new File(context.getCacheDir(), BUNDLE_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        File file = new File(dir, bundleId + ".bundle");
+        List<Entry> entries = new ArrayList<>();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            long offset = 0;
+            for (int i = 0; i < uris.size(); i++) {
+                Uri uri = uris.get(i);
+                InputStream is = context.getContentResolver().openInputStream(uri);
+                if (is == null) {
+                    throw new FileNotFoundException("无法打开文件: " + uri);
+                }
+                long size = 0;
+                try (InputStream in = is) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                        size += n;
+                    }
+                }
+                entries.add(new Entry(i, uri.toString(), queryName(context, uri, i), offset, size));
+                offset += size;
+            }
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        Log.d(TAG, "打包完成: " + entries.size() + " 个文件, " + file.length() + " 字节");
+        return new UploadBundle(bundleId, file, entries);
+    }
+
+    /**
+     * 续传记录中的 Uri 是否指向打包数据文件（打包会话不跨进程续传）
+     */
+    public static boolean isBundleUri(String uri) {
+        return uri != null && uri.startsWith("file:") && uri.contains("/" + BUNDLE_DIR + "/");
+    }
+
+    /**
+     * 删除遗留的打包数据文件（进程被杀后留下的）
+     */
+    public static void deleteStale(String uri) {
+        String path = Uri.parse(uri).getPath();
+        if (path != null && new File(path).delete()) {
+            Log.d(TAG, "删除遗留的打包文件: " + path);
+        }
+    }
+
+    public String getBundleId() {
+        return bundleId;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * 注册请求体中的清单：{"files":[{"name":..,"offset":..,"size":..}]}
+     */
+    public String manifestJson() throws JSONException {
+        JSONArray files = new JSONArray();
+        for (Entry entry : entries) {
+            JSONObject item = new JSONObject();
+            item.put("name", entry.name);
+            item.put("offset", entry.offset);
+            item.put("size", entry.size);
+            files.put(item);
+        }
+        return new JSONObject().put("files", files).toString();
+    }
+
+    /**
+     * 解析合并响应中的 files 数组（元素为 URL 字符串或带 url 字段的对象），
+     * 所有文件都拿到 URL 时返回 true
+     */
+    public boolean applyMergeResult(JSONArray files) {
+        if (files == null || files.length() != entries.size()) {
+            Log.e(TAG, "合并响应的文件数与清单不一致: " + (files != null ? files.length() : 0) + "/" + entries.size());
+            return false;
+        }
+        for (int i = 0; i < files.length(); i++) {
+            JSONObject item = files.optJSONObject(i);
+            String url = item != null ? item.optString("url", "") : files.optString(i, "");
+            if (url.isEmpty()) {
+                return false;
+            }
+            entries.get(i).url = url;
+        }
+        return true;
+    }
+
+    public void delete() {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "删除打包文件失败: " + file);
+        }
+    }
+
+    private static String queryName(Context context, Uri uri, int index) {
+        try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                if (nameIndex != -1 && cursor.getString(nameIndex) != null) {
+                    return cursor.getString(nameIndex);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "获取文件名错误", e);
+        }
+        String last = uri.getLastPathSegment();
+        return last != null ? last : "file_" + index;
+    }
+}
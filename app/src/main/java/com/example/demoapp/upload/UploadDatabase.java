@@ -6,12 +6,16 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
 
 public class UploadDatabase extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "upload_history.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 7;
     private static final String TABLE_UPLOADS = "uploads";
+    private static final String TABLE_SESSIONS = "upload_sessions";
+    private static final String TABLE_DOWNLOADS = "download_states";
 
     private static final String COLUMN_ID = "id";
     private static final String COLUMN_NAME = "name";
@@ -20,8 +24,48 @@ public class UploadDatabase extends SQLiteOpenHelper {
     private static final String COLUMN_URL = "url";
     private static final String COLUMN_UPLOAD_TIME = "upload_time";
 
-    public UploadDatabase(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    private static final String COLUMN_FILE_ID = "file_id";
+    private static final String COLUMN_URI = "uri";
+    private static final String COLUMN_FILE_NAME = "file_name";
+    private static final String COLUMN_FILE_SIZE = "file_size";
+    private static final String COLUMN_CHUNK_SIZE = "chunk_size";
+    private static final String COLUMN_TOTAL_CHUNKS = "total_chunks";
+    private static final String COLUMN_CHUNK_PLAN = "chunk_plan";
+    private static final String COLUMN_CONTENT_HASH = "content_hash";
+    private static final String COLUMN_ACKED_CHUNKS = "acked_chunks";
+    private static final String COLUMN_UPDATED_AT = "updated_at";
+    // 发起上传的页面，只有该页面会续传这个会话
+    private static final String COLUMN_ORIGIN = "origin";
+    private static final String COLUMN_SOURCE_MODIFIED = "source_modified";
+
+    private static final String COLUMN_TARGET_PATH = "target_path";
+    private static final String COLUMN_ETAG = "etag";
+    private static final String COLUMN_LAST_MODIFIED = "last_modified";
+    private static final String COLUMN_TOTAL_SIZE = "total_size";
+    private static final String COLUMN_CONTENT_TYPE = "content_type";
+    private static final String COLUMN_RANGES = "ranges";
+
+    private static UploadDatabase instance;
+
+    /**
+     * 应用内共享的数据库实例：页面、上传和下载管理器共用一个连接，使用方不要关闭
+     */
+    public static synchronized UploadDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new UploadDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private UploadDatabase(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * 独立的数据库文件（基准测试使用），用完后由调用方关闭并删除；应用中共用 getInstance()
+     */
+    UploadDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
     }
 
     @Override
@@ -34,12 +78,67 @@ public class UploadDatabase extends SQLiteOpenHelper {
                 COLUMN_URL + " TEXT, " +
                 COLUMN_UPLOAD_TIME + " INTEGER)";
         db.execSQL(createTable);
+        createSessionsTable(db);
+        createDownloadsTable(db);
+    }
+
+    private void createSessionsTable(SQLiteDatabase db) {
+        String createTable = "CREATE TABLE " + TABLE_SESSIONS + " (" +
+                COLUMN_FILE_ID + " TEXT PRIMARY KEY, " +
+                COLUMN_URI + " TEXT, " +
+                COLUMN_FILE_NAME + " TEXT, " +
+                COLUMN_FILE_SIZE + " INTEGER, " +
+                COLUMN_CHUNK_SIZE + " INTEGER, " +
+                COLUMN_TOTAL_CHUNKS + " INTEGER, " +
+                COLUMN_CHUNK_PLAN + " TEXT, " +
+                COLUMN_CONTENT_HASH + " TEXT, " +
+                COLUMN_ACKED_CHUNKS + " BLOB, " +
+                COLUMN_UPDATED_AT + " INTEGER, " +
+                COLUMN_ORIGIN + " TEXT, " +
+                COLUMN_SOURCE_MODIFIED + " INTEGER)";
+        db.execSQL(createTable);
+    }
+
+    private void createDownloadsTable(SQLiteDatabase db) {
+        String createTable = "CREATE TABLE " + TABLE_DOWNLOADS + " (" +
+                COLUMN_TARGET_PATH + " TEXT PRIMARY KEY, " +
+                COLUMN_URL + " TEXT, " +
+                COLUMN_ETAG + " TEXT, " +
+                COLUMN_LAST_MODIFIED + " TEXT, " +
+                COLUMN_TOTAL_SIZE + " INTEGER, " +
+                COLUMN_CONTENT_TYPE + " TEXT, " +
+                COLUMN_RANGES + " TEXT, " +
+                COLUMN_UPDATED_AT + " INTEGER)";
+        db.execSQL(createTable);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_UPLOADS);
-        onCreate(db);
+        // 保留历史记录，只补充新增的表
+        if (oldVersion < 2) {
+            createSessionsTable(db);
+        } else {
+            if (oldVersion < 3) {
+                db.execSQL("ALTER TABLE " + TABLE_SESSIONS + " ADD COLUMN " + COLUMN_CHUNK_PLAN + " TEXT");
+            }
+            if (oldVersion < 4) {
+                db.execSQL("ALTER TABLE " + TABLE_SESSIONS + " ADD COLUMN " + COLUMN_CONTENT_HASH + " TEXT");
+            }
+            if (oldVersion < 6) {
+                // 旧会话都是上传页面发起的
+                db.execSQL("ALTER TABLE " + TABLE_SESSIONS + " ADD COLUMN " + COLUMN_ORIGIN + " TEXT");
+                db.execSQL("UPDATE " + TABLE_SESSIONS + " SET " + COLUMN_ORIGIN + " = '"
+                        + FileUploadManager.ORIGIN_UPLOAD_PAGE + "'");
+            }
+            if (oldVersion < 7) {
+                // 旧会话的修改时间未知（0），续传时退回比较内容哈希
+                db.execSQL("ALTER TABLE " + TABLE_SESSIONS + " ADD COLUMN " + COLUMN_SOURCE_MODIFIED
+                        + " INTEGER DEFAULT 0");
+            }
+        }
+        if (oldVersion < 5) {
+            createDownloadsTable(db);
+        }
     }
 
     public void insertOrUpdate(UploadRecord record) {
@@ -53,7 +152,6 @@ public class UploadDatabase extends SQLiteOpenHelper {
         values.put(COLUMN_UPLOAD_TIME, record.getUploadTime());
 
         db.insertWithOnConflict(TABLE_UPLOADS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
-        db.close();
     }
 
     public void saveUploadRecord(UploadRecord record) {
@@ -79,14 +177,12 @@ public class UploadDatabase extends SQLiteOpenHelper {
         }
 
         cursor.close();
-        db.close();
         return records;
     }
 
     public void delete(String id) {
         SQLiteDatabase db = getWritableDatabase();
         db.delete(TABLE_UPLOADS, COLUMN_ID + " = ?", new String[]{id});
-        db.close();
     }
 
     public void deleteRecord(String id) {
@@ -96,6 +192,144 @@ public class UploadDatabase extends SQLiteOpenHelper {
     public void clearAll() {
         SQLiteDatabase db = getWritableDatabase();
         db.delete(TABLE_UPLOADS, null, null);
-        db.close();
+    }
+
+    // ========== 上传会话（分片确认位图） ==========
+
+    /**
+     * 批量更新上传进度和分片确认位图（单个事务），进度只增不减，不会覆盖已完成的记录
+     */
+    public void updateProgress(Map<String, Integer> progressById, Map<String, byte[]> ackedById) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, Integer> entry : progressById.entrySet()) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_PROGRESS, entry.getValue());
+                db.update(TABLE_UPLOADS, values, COLUMN_ID + " = ? AND " + COLUMN_PROGRESS + " < ?",
+                        new String[]{entry.getKey(), String.valueOf(entry.getValue())});
+            }
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, byte[]> entry : ackedById.entrySet()) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_ACKED_CHUNKS, entry.getValue());
+                values.put(COLUMN_UPDATED_AT, now);
+                db.update(TABLE_SESSIONS, values, COLUMN_FILE_ID + " = ?", new String[]{entry.getKey()});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void saveSession(UploadSessionRecord session) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_FILE_ID, session.getFileId());
+        values.put(COLUMN_URI, session.getUri());
+        values.put(COLUMN_FILE_NAME, session.getFileName());
+        values.put(COLUMN_FILE_SIZE, session.getFileSize());
+        values.put(COLUMN_CHUNK_SIZE, session.getChunkSize());
+        values.put(COLUMN_TOTAL_CHUNKS, session.getTotalChunks());
+        values.put(COLUMN_CHUNK_PLAN, session.getChunkPlan());
+        values.put(COLUMN_CONTENT_HASH, session.getContentHash());
+        values.put(COLUMN_ACKED_CHUNKS, session.getAckedBitmap());
+        values.put(COLUMN_UPDATED_AT, session.getUpdatedAt());
+        values.put(COLUMN_ORIGIN, session.getOrigin());
+        values.put(COLUMN_SOURCE_MODIFIED, session.getSourceModified());
+
+        db.insertWithOnConflict(TABLE_SESSIONS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    public UploadSessionRecord getSession(String fileId) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(TABLE_SESSIONS, null, COLUMN_FILE_ID + " = ?",
+                new String[]{fileId}, null, null, null);
+        UploadSessionRecord session = null;
+        if (cursor.moveToFirst()) {
+            session = readSession(cursor);
+        }
+        cursor.close();
+        return session;
+    }
+
+    /**
+     * 指定页面发起的未完成会话
+     */
+    public List<UploadSessionRecord> getPendingSessions(String origin) {
+        List<UploadSessionRecord> sessions = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(TABLE_SESSIONS, null, COLUMN_ORIGIN + " = ?", new String[]{origin},
+                null, null, COLUMN_UPDATED_AT + " ASC");
+        while (cursor.moveToNext()) {
+            sessions.add(readSession(cursor));
+        }
+        cursor.close();
+        return sessions;
+    }
+
+    public void deleteSession(String fileId) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE_SESSIONS, COLUMN_FILE_ID + " = ?", new String[]{fileId});
+    }
+
+    private UploadSessionRecord readSession(Cursor cursor) {
+        byte[] acked = cursor.getBlob(cursor.getColumnIndexOrThrow(COLUMN_ACKED_CHUNKS));
+        UploadSessionRecord session = new UploadSessionRecord(
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_FILE_ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_URI)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_FILE_NAME)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_FILE_SIZE)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_CHUNK_SIZE)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_TOTAL_CHUNKS)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CHUNK_PLAN)),
+                acked != null ? BitSet.valueOf(acked) : new BitSet(),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_UPDATED_AT))
+        );
+        session.setContentHash(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CONTENT_HASH)));
+        session.setOrigin(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ORIGIN)));
+        session.setSourceModified(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_SOURCE_MODIFIED)));
+        return session;
+    }
+
+    // ========== 下载续传状态 ==========
+
+    public void saveDownloadState(DownloadStateRecord state) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TARGET_PATH, state.getTargetPath());
+        values.put(COLUMN_URL, state.getUrl());
+        values.put(COLUMN_ETAG, state.getEtag());
+        values.put(COLUMN_LAST_MODIFIED, state.getLastModified());
+        values.put(COLUMN_TOTAL_SIZE, state.getTotalSize());
+        values.put(COLUMN_CONTENT_TYPE, state.getContentType());
+        values.put(COLUMN_RANGES, state.encodeRanges());
+        values.put(COLUMN_UPDATED_AT, state.getUpdatedAt());
+
+        db.insertWithOnConflict(TABLE_DOWNLOADS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    public DownloadStateRecord getDownloadState(String targetPath) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(TABLE_DOWNLOADS, null, COLUMN_TARGET_PATH + " = ?",
+                new String[]{targetPath}, null, null, null);
+        DownloadStateRecord state = null;
+        if (cursor.moveToFirst()) {
+            state = new DownloadStateRecord(targetPath,
+                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_URL)));
+            state.setEtag(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ETAG)));
+            state.setLastModified(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LAST_MODIFIED)));
+            state.setTotalSize(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TOTAL_SIZE)));
+            state.setContentType(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CONTENT_TYPE)));
+            state.decodeRanges(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_RANGES)));
+            state.setUpdatedAt(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_UPDATED_AT)));
+        }
+        cursor.close();
+        return state;
+    }
+
+    public void deleteDownloadState(String targetPath) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE_DOWNLOADS, COLUMN_TARGET_PATH + " = ?", new String[]{targetPath});
     }
 }
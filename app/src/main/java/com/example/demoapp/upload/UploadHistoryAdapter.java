@@ -85,6 +85,40 @@ public class UploadHistoryAdapter extends RecyclerView.Adapter<UploadHistoryAdap
         notifyDataSetChanged();
     }
 
+    /**
+     * 只刷新进度变化的那一行
+     */
+    public void updateProgress(String id, int progress) {
+        int position = indexOf(id);
+        if (position < 0 || records.get(position).getProgress() == progress) {
+            return;
+        }
+        records.get(position).setProgress(progress);
+        notifyItemChanged(position);
+    }
+
+    /**
+     * 替换同 id 的记录并只刷新该行；不在列表中时返回 false
+     */
+    public boolean updateRecord(UploadRecord record) {
+        int position = indexOf(record.getId());
+        if (position < 0) {
+            return false;
+        }
+        records.set(position, record);
+        notifyItemChanged(position);
+        return true;
+    }
+
+    private int indexOf(String id) {
+        for (int i = 0; i < records.size(); i++) {
+            if (records.get(i).getId().equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * 在浏览器中打开 URL（所有文件类型）
      */
@@ -0,0 +1,285 @@
+package com.example.demoapp.upload;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 上传指标 - 按会话和全局汇总
+ * register/save/merge 的延迟直方图、按原因分类的重试次数、有效吞吐（goodput，新确认的文件字节）
+ * 与原始吞吐（实际发出的请求体字节，含重试和重发）。记录路径只有原子操作，可在线上常开
+ */
+public class UploadMetrics {
+    // 保留最近结束的会话数量
+    private static final int MAX_FINISHED_SESSIONS = 20;
+
+    private static final UploadMetrics INSTANCE = new UploadMetrics();
+
+    /**
+     * 重试原因
+     */
+    public enum RetryCause {
+        // 网络错误、超时
+        NETWORK,
+        // 非 200 的 HTTP 状态码
+        HTTP_ERROR,
+        // 响应为空或无法解析
+        BAD_RESPONSE,
+        // 分片校验和不一致
+        CHECKSUM_MISMATCH,
+        // 合并时服务器报告缺失/损坏的分片
+        MISSING_CHUNK,
+        // 注册失败
+        REGISTER,
+        // 合并失败
+        MERGE
+    }
+
+    /**
+     * 一组指标（单个会话或全局）
+     */
+    public static class Stats {
+        public final LatencyHistogram registerLatency = new LatencyHistogram();
+        public final LatencyHistogram saveLatency = new LatencyHistogram();
+        public final LatencyHistogram mergeLatency = new LatencyHistogram();
+        final AtomicLongArray retries = new AtomicLongArray(RetryCause.values().length);
+        final AtomicLong payloadBytes = new AtomicLong();
+        final AtomicLong wireBytes = new AtomicLong();
+
+        public long getRetryCount(RetryCause cause) {
+            return retries.get(cause.ordinal());
+        }
+
+        public long getTotalRetries() {
+            long total = 0;
+            for (int i = 0; i < retries.length(); i++) {
+                total += retries.get(i);
+            }
+            return total;
+        }
+
+        public long getPayloadBytes() {
+            return payloadBytes.get();
+        }
+
+        public long getWireBytes() {
+            return wireBytes.get();
+        }
+
+        String format(long activeMillis) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("register ").append(registerLatency.summary()).append('\n');
+            sb.append("save     ").append(saveLatency.summary()).append('\n');
+            sb.append("merge    ").append(mergeLatency.summary()).append('\n');
+            double seconds = Math.max(activeMillis, 1) / 1000.0;
+            sb.append(String.format(Locale.ROOT, "goodput %.1f KB/s, raw %.1f KB/s (%.1f / %.1f MB)",
+                    payloadBytes.get() / 1024.0 / seconds, wireBytes.get() / 1024.0 / seconds,
+                    payloadBytes.get() / 1024.0 / 1024.0, wireBytes.get() / 1024.0 / 1024.0)).append('\n');
+            sb.append("retries ").append(getTotalRetries());
+            for (RetryCause cause : RetryCause.values()) {
+                long n = retries.get(cause.ordinal());
+                if (n > 0) {
+                    sb.append(' ').append(cause.name().toLowerCase(Locale.ROOT)).append('=').append(n);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 单个上传会话的指标
+     */
+    public static class SessionMetrics extends Stats {
+        public final String fileId;
+        public final String fileName;
+        public final long fileSize;
+        public final long startTime;
+        private volatile long endTime = 0;
+        private volatile boolean success = false;
+
+        SessionMetrics(String fileId, String fileName, long fileSize) {
+            this.fileId = fileId;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.startTime = System.currentTimeMillis();
+        }
+
+        public boolean isFinished() {
+            return endTime > 0;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public long getElapsedMillis() {
+            return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+        }
+
+        public String format() {
+            String state = !isFinished() ? "上传中" : success ? "成功" : "失败";
+            return fileName + " (" + fileSize / 1024 + " KB, " + state + ", "
+                    + getElapsedMillis() + " ms)\n" + format(getElapsedMillis());
+        }
+    }
+
+    private final Stats global = new Stats();
+    private final Map<String, SessionMetrics> sessions = new LinkedHashMap<>();
+    // 全局吞吐按"至少有一个会话在上传"的时间计算，避免并发会话重复计时
+    private int activeSessions = 0;
+    private long busySince = 0;
+    private long busyMillis = 0;
+
+    /**
+     * 独立的指标（基准测试使用），应用中的上传使用 getInstance()
+     */
+    UploadMetrics() {
+    }
+
+    public static UploadMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    void startSession(String fileId, String fileName, long fileSize) {
+        synchronized (sessions) {
+            SessionMetrics previous = sessions.put(fileId, new SessionMetrics(fileId, fileName, fileSize));
+            if (previous == null || previous.isFinished()) {
+                if (activeSessions++ == 0) {
+                    busySince = System.currentTimeMillis();
+                }
+            }
+            trimFinished();
+        }
+    }
+
+    void endSession(String fileId, boolean success) {
+        synchronized (sessions) {
+            SessionMetrics session = sessions.get(fileId);
+            if (session == null || session.isFinished()) {
+                return;
+            }
+            session.success = success;
+            session.endTime = System.currentTimeMillis();
+            if (--activeSessions == 0) {
+                busyMillis += session.endTime - busySince;
+            }
+            trimFinished();
+        }
+    }
+
+    void recordRegister(String fileId, long millis) {
+        global.registerLatency.record(millis);
+        SessionMetrics session = getSession(fileId);
+        if (session != null) {
+            session.registerLatency.record(millis);
+        }
+    }
+
+    void recordSave(String fileId, long millis) {
+        global.saveLatency.record(millis);
+        SessionMetrics session = getSession(fileId);
+        if (session != null) {
+            session.saveLatency.record(millis);
+        }
+    }
+
+    void recordMerge(String fileId, long millis) {
+        global.mergeLatency.record(millis);
+        SessionMetrics session = getSession(fileId);
+        if (session != null) {
+            session.mergeLatency.record(millis);
+        }
+    }
+
+    void recordRetry(String fileId, RetryCause cause) {
+        global.retries.incrementAndGet(cause.ordinal());
+        SessionMetrics session = getSession(fileId);
+        if (session != null) {
+            session.retries.incrementAndGet(cause.ordinal());
+        }
+    }
+
+    /**
+     * 新确认的文件字节（有效数据）
+     */
+    void recordPayload(String fileId, long bytes) {
+        global.payloadBytes.addAndGet(bytes);
+        SessionMetrics session = getSession(fileId);
+        if (session != null) {
+            session.payloadBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * 实际发出的请求体字节（含重试、重发，压缩后的大小）
+     */
+    void recordWire(String fileId, long bytes) {
+        global.wireBytes.addAndGet(bytes);
+        SessionMetrics session = getSession(fileId);
+        if (session != null) {
+            session.wireBytes.addAndGet(bytes);
+        }
+    }
+
+    public Stats getGlobal() {
+        return global;
+    }
+
+    public SessionMetrics getSession(String fileId) {
+        synchronized (sessions) {
+            return sessions.get(fileId);
+        }
+    }
+
+    /**
+     * 进行中和最近结束的会话，按开始时间排序
+     */
+    public List<SessionMetrics> getSessions() {
+        synchronized (sessions) {
+            return new ArrayList<>(sessions.values());
+        }
+    }
+
+    /**
+     * 累计的上传时间（至少有一个会话在上传）
+     */
+    public long getBusyMillis() {
+        synchronized (sessions) {
+            return busyMillis + (activeSessions > 0 ? System.currentTimeMillis() - busySince : 0);
+        }
+    }
+
+    /**
+     * 可读的指标报告（全局 + 各会话）
+     */
+    public String formatReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("== 全局 ==\n").append(global.format(getBusyMillis()));
+        List<SessionMetrics> list = getSessions();
+        for (int i = list.size() - 1; i >= 0; i--) {
+            sb.append("\n\n== ").append(list.get(i).format());
+        }
+        return sb.toString();
+    }
+
+    private void trimFinished() {
+        int finished = 0;
+        for (SessionMetrics session : sessions.values()) {
+            if (session.isFinished()) {
+                finished++;
+            }
+        }
+        Iterator<SessionMetrics> iterator = sessions.values().iterator();
+        while (finished > MAX_FINISHED_SESSIONS && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.demoapp.upload;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上传进度总线 - 合并分片完成产生的进度事件
+ * 主线程每个间隔最多收到一次每个文件的最新进度；进度和分片确认位图在后台线程按批写入数据库（单个事务）
+ */
+public class UploadProgressBus {
+    private static final String TAG = "UploadProgressBus";
+    // 约 6 帧，足够平滑又不会每个分片都刷新界面
+    private static final long UI_INTERVAL_MILLIS = 100;
+    private static final long PERSIST_INTERVAL_MILLIS = 1000;
+
+    private static final UploadProgressBus INSTANCE = new UploadProgressBus();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ScheduledExecutorService persistExecutor;
+    private final Map<String, PendingProgress> pendingUi = new LinkedHashMap<>();
+    private final Map<String, Integer> pendingPersist = new HashMap<>();
+    private final Map<String, byte[]> pendingAcks = new HashMap<>();
+    private boolean uiFlushScheduled = false;
+    private boolean persistScheduled = false;
+    private volatile UploadDatabase store;
+
+    public static UploadProgressBus getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 独立的进度总线（基准测试使用，不设置数据库），应用中的上传使用 getInstance()
+     */
+    UploadProgressBus() {
+        persistExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "upload-progress-persist");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 设置进度持久化使用的数据库（应用启动时设置一次）
+     */
+    public void attachStore(UploadDatabase store) {
+        this.store = store;
+    }
+
+    /**
+     * 发布进度，可在任意线程调用；同一文件在一个间隔内的多次进度只保留最新一次
+     */
+    public void post(String fileId, FileUploadManager.UploadCallback callback, int progress) {
+        synchronized (this) {
+            pendingUi.put(fileId, new PendingProgress(callback, progress));
+            Integer persisted = pendingPersist.get(fileId);
+            if (persisted == null || persisted < progress) {
+                pendingPersist.put(fileId, progress);
+            }
+            if (!uiFlushScheduled) {
+                uiFlushScheduled = true;
+                mainHandler.postDelayed(this::flushUi, UI_INTERVAL_MILLIS);
+            }
+            schedulePersist();
+        }
+    }
+
+    /**
+     * 发布续传会话的分片确认位图，与进度一起按间隔写入；同一文件只保留最新的位图
+     * 进程被杀时最多丢失一个间隔内的确认，续传时这些分片会重新发送
+     */
+    public synchronized void postAcked(String fileId, byte[] ackedBitmap) {
+        pendingAcks.put(fileId, ackedBitmap);
+        schedulePersist();
+    }
+
+    /**
+     * 丢弃尚未派发的界面进度（会话成功或失败时调用，保证 onProgress 不会晚于最终回调）
+     */
+    public synchronized void discard(FileUploadManager.UploadCallback callback) {
+        Iterator<PendingProgress> it = pendingUi.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().callback == callback) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 丢弃尚未写入的确认位图（会话记录删除前调用，避免旧位图写到同 fileId 的新会话上）
+     */
+    public synchronized void discardAcks(String fileId) {
+        pendingAcks.remove(fileId);
+    }
+
+    private void schedulePersist() {
+        if (!persistScheduled) {
+            persistScheduled = true;
+            persistExecutor.schedule(this::flushPersist, PERSIST_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushUi() {
+        Map<String, PendingProgress> batch;
+        synchronized (this) {
+            uiFlushScheduled = false;
+            if (pendingUi.isEmpty()) {
+                return;
+            }
+            batch = new LinkedHashMap<>(pendingUi);
+            pendingUi.clear();
+        }
+        for (PendingProgress pending : batch.values()) {
+            pending.callback.onProgress(pending.progress);
+        }
+    }
+
+    private void flushPersist() {
+        Map<String, Integer> batch;
+        Map<String, byte[]> acks;
+        synchronized (this) {
+            persistScheduled = false;
+            if (pendingPersist.isEmpty() && pendingAcks.isEmpty()) {
+                return;
+            }
+            batch = new HashMap<>(pendingPersist);
+            pendingPersist.clear();
+            acks = new HashMap<>(pendingAcks);
+            pendingAcks.clear();
+        }
+        UploadDatabase db = store;
+        if (db == null) {
+            return;
+        }
+        try {
+            db.updateProgress(batch, acks);
+        } catch (Exception e) {
+            Log.e(TAG, "保存上传进度错误", e);
+        }
+    }
+
+    private static class PendingProgress {
+        final FileUploadManager.UploadCallback callback;
+        final int progress;
+
+        PendingProgress(FileUploadManager.UploadCallback callback, int progress) {
+            this.callback = callback;
+            this.progress = progress;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.demoapp.upload;
+
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程级上传调度器 - 所有上传会话共享一个并发窗口和一组工作线程
+ * 按优先级调度，同一优先级内按会话轮转（每个文件轮流发一个分片），小文件不会被大文件饿死
+ */
+public class UploadScheduler {
+    private static final String TAG = "UploadScheduler";
+    // 工作线程数与并发窗口上限一致，实际在途分片数由窗口决定
+    private static final int WORKER_COUNT = CongestionWindow.MAX_WINDOW;
+    // 注册、提交合并、查询合并状态使用独立线程，不占用分片名额（读文件的准备工作和重发分片在工作线程执行）
+    // 控制任务和分片任务都不阻塞等待：退避和熔断冷却分别通过 scheduleControl / submitDelayed 重新安排
+    private static final int CONTROL_THREAD_COUNT = 2;
+
+    public enum Priority {
+        /** 聊天附件等用户正在等待的上传 */
+        INTERACTIVE,
+        /** 用户主动选择的普通上传 */
+        NORMAL,
+        /** 批量、续传等后台上传 */
+        BACKGROUND
+    }
+
+    private static final UploadScheduler INSTANCE = new UploadScheduler();
+
+    private final List<ArrayDeque<SessionQueue>> readyQueues = new ArrayList<>();
+    private final Map<String, SessionQueue> sessionQueues = new HashMap<>();
+    private final CopyOnWriteArrayList<CongestionWindow.Listener> windowListeners = new CopyOnWriteArrayList<>();
+    private final CongestionWindow window;
+    private final RetryPolicy retryPolicy = new RetryPolicy();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    // 控制任务按会话优先级出队，聊天附件的注册/合并不会排在批量上传之后
+    private final ExecutorService controlExecutor;
+    private final AtomicLong controlSequence = new AtomicLong();
+    // 只负责延时（退避、合并状态轮询），到期后交给控制线程或放回会话队列
+    private final ScheduledExecutorService timer;
+    private final List<Thread> workers = new ArrayList<>();
+    private int runningTasks = 0;
+
+    public static UploadScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 独立的调度器（基准测试使用，自带并发窗口、重试预算和熔断器），用完后调用 shutdown；
+     * 应用中的上传共用 getInstance()
+     */
+    UploadScheduler() {
+        for (int i = 0; i < Priority.values().length; i++) {
+            readyQueues.add(new ArrayDeque<>());
+        }
+        this.window = new CongestionWindow(this::onWindowChanged);
+
+        AtomicInteger controlIndex = new AtomicInteger();
+        this.controlExecutor = new ThreadPoolExecutor(CONTROL_THREAD_COUNT, CONTROL_THREAD_COUNT,
+                0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "upload-control-" + controlIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "upload-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 1; i <= WORKER_COUNT; i++) {
+            Thread worker = new Thread(this::workerLoop, "upload-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * 停止所有线程（只用于独立调度器），排队中的任务被丢弃
+     */
+    void shutdown() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        controlExecutor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * 全局并发窗口，所有会话的分片上传都从这里申请名额
+     */
+    public CongestionWindow getWindow() {
+        return window;
+    }
+
+    /**
+     * 共享的重试策略（退避和重试预算）
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * 上传接口熔断器，所有会话共享
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void addWindowListener(CongestionWindow.Listener listener) {
+        windowListeners.add(listener);
+    }
+
+    public void removeWindowListener(CongestionWindow.Listener listener) {
+        windowListeners.remove(listener);
+    }
+
+    /**
+     * 提交一个分片任务到会话队列；会话的优先级以第一次提交时为准
+     */
+    public synchronized void submit(String sessionKey, Priority priority, Runnable task) {
+        SessionQueue queue = sessionQueues.get(sessionKey);
+        if (queue == null) {
+            queue = new SessionQueue(sessionKey, priority);
+            sessionQueues.put(sessionKey, queue);
+        }
+        queue.tasks.addLast(task);
+        if (!queue.ready) {
+            queue.ready = true;
+            readyQueues.get(queue.priority.ordinal()).addLast(queue);
+        }
+        notifyAll();
+    }
+
+    /**
+     * 延时把任务放回会话队列（分片退避、等待熔断冷却），等待期间不占用工作线程和并发名额
+     */
+    public void submitDelayed(String sessionKey, Priority priority, Runnable task, long delayMillis) {
+        timer.schedule(() -> submit(sessionKey, priority, task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 执行会话控制任务（注册、合并），不经过分片队列；任务内不能阻塞等待
+     * 排队时优先级高的先执行，同一优先级按提交顺序
+     */
+    public void executeControl(Priority priority, Runnable task) {
+        controlExecutor.execute(new ControlTask(priority, controlSequence.incrementAndGet(), task));
+    }
+
+    /**
+     * 延时执行控制任务，等待期间不占用任何线程
+     */
+    public ScheduledFuture<?> scheduleControl(Priority priority, Runnable task, long delayMillis) {
+        return timer.schedule(() -> executeControl(priority, task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 排队中（尚未开始）的分片任务数
+     */
+    public synchronized int getQueuedCount(String sessionKey) {
+        SessionQueue queue = sessionQueues.get(sessionKey);
+        return queue != null ? queue.tasks.size() : 0;
+    }
+
+    private void workerLoop() {
+        while (true) {
+            Runnable task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Log.e(TAG, "上传任务异常", t);
+            } finally {
+                synchronized (this) {
+                    runningTasks--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * 取下一个任务：在途任务数达到窗口时等待；优先级高的先取，同一优先级按会话轮转
+     * 在出队时就受窗口限制，避免低优先级分片先占满线程后在窗口上阻塞
+     */
+    private synchronized Runnable take() throws InterruptedException {
+        while (true) {
+            if (runningTasks < window.getWindow()) {
+                for (ArrayDeque<SessionQueue> level : readyQueues) {
+                    SessionQueue queue = level.pollFirst();
+                    if (queue == null) {
+                        continue;
+                    }
+                    Runnable task = queue.tasks.pollFirst();
+                    if (queue.tasks.isEmpty()) {
+                        queue.ready = false;
+                        sessionQueues.remove(queue.key);
+                    } else {
+                        level.addLast(queue);
+                    }
+                    runningTasks++;
+                    return task;
+                }
+            }
+            wait();
+        }
+    }
+
+    private void onWindowChanged(int newWindow) {
+        synchronized (this) {
+            // 窗口变大时唤醒等待的工作线程
+            notifyAll();
+        }
+        for (CongestionWindow.Listener listener : windowListeners) {
+            listener.onWindowChanged(newWindow);
+        }
+    }
+
+    private static class ControlTask implements Runnable, Comparable<ControlTask> {
+        final Priority priority;
+        final long sequence;
+        final Runnable task;
+
+        ControlTask(Priority priority, long sequence, Runnable task) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(ControlTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority.ordinal(), other.priority.ordinal());
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class SessionQueue {
+        final String key;
+        final Priority priority;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        boolean ready = false;
+
+        SessionQueue(String key, Priority priority) {
+            this.key = key;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.demoapp.upload;
+
+import java.util.BitSet;
+
+/**
+ * 上传会话 - 记录每个分片是否已被服务器确认，用于进程被杀后续传
+ */
+public class UploadSessionRecord {
+    private String fileId;
+    private String uri;
+    private String fileName;
+    private long fileSize;
+    private int chunkSize;
+    private int totalChunks;
+    private String chunkPlan;
+    private String contentHash;
+    private String origin;
+    // 创建会话时源文件的修改时间（毫秒），0 表示未知；续传前用于确认文件没有变化
+    private long sourceModified;
+    private BitSet ackedChunks;
+    private long updatedAt;
+
+    public UploadSessionRecord() {
+        this.ackedChunks = new BitSet();
+    }
+
+    public UploadSessionRecord(String fileId, String uri, String fileName, long fileSize,
+                               int chunkSize, int totalChunks, String chunkPlan, BitSet ackedChunks,
+                               long updatedAt) {
+        this.fileId = fileId;
+        this.uri = uri;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        this.totalChunks = totalChunks;
+        this.chunkPlan = chunkPlan;
+        this.ackedChunks = ackedChunks != null ? ackedChunks : new BitSet();
+        this.updatedAt = updatedAt;
+    }
+
+    public String getFileId() { return fileId; }
+    public void setFileId(String fileId) { this.fileId = fileId; }
+
+    public String getUri() { return uri; }
+    public void setUri(String uri) { this.uri = uri; }
+
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+
+    public long getFileSize() { return fileSize; }
+    public void setFileSize(long fileSize) { this.fileSize = fileSize; }
+
+    public int getChunkSize() { return chunkSize; }
+    public void setChunkSize(int chunkSize) { this.chunkSize = chunkSize; }
+
+    public int getTotalChunks() { return totalChunks; }
+    public void setTotalChunks(int totalChunks) { this.totalChunks = totalChunks; }
+
+    public String getChunkPlan() { return chunkPlan; }
+    public void setChunkPlan(String chunkPlan) { this.chunkPlan = chunkPlan; }
+
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+
+    public String getOrigin() { return origin; }
+    public void setOrigin(String origin) { this.origin = origin; }
+
+    public long getSourceModified() { return sourceModified; }
+    public void setSourceModified(long sourceModified) { this.sourceModified = sourceModified; }
+
+    public long getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+
+    public synchronized boolean isChunkAcked(int chunkIndex) {
+        return ackedChunks.get(chunkIndex);
+    }
+
+    public synchronized int getAckedCount() {
+        return ackedChunks.cardinality();
+    }
+
+    /**
+     * 标记分片已确认，返回确认位图的快照（用于持久化）
+     */
+    public synchronized byte[] markChunkAcked(int chunkIndex) {
+        ackedChunks.set(chunkIndex);
+        updatedAt = System.currentTimeMillis();
+        return ackedChunks.toByteArray();
+    }
+
+    public synchronized byte[] getAckedBitmap() {
+        return ackedChunks.toByteArray();
+    }
+}
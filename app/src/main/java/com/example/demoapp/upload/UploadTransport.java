@@ -0,0 +1,94 @@
+package com.example.demoapp.upload;
+
+import android.util.Log;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * 上传传输层 - 进程内共享的 OkHttpClient
+ * 所有上传会话复用同一个连接池（HTTP/1.1 keep-alive），
+ * 开启 h2c prior-knowledge 后同一服务器的并发分片复用一条 HTTP/2 多路复用连接
+ */
+public class UploadTransport {
+    private static final String TAG = "UploadTransport";
+    private static final int MAX_IDLE_CONNECTIONS = CongestionWindow.MAX_WINDOW;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static final UploadTransport INSTANCE = new UploadTransport();
+
+    private boolean h2cPriorKnowledge = false;
+    private OkHttpClient client;
+
+    public static UploadTransport getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 独立连接池的传输层（基准测试使用），应用中的上传使用 getInstance()
+     */
+    UploadTransport() {
+    }
+
+    /**
+     * 启用/关闭 h2c prior-knowledge（明文 HTTP/2，要求服务器支持），默认关闭；应用启动时按 BuildConfig.UPLOAD_H2C 设置
+     */
+    public synchronized void setH2cPriorKnowledge(boolean enabled) {
+        if (h2cPriorKnowledge != enabled) {
+            h2cPriorKnowledge = enabled;
+            client = null;
+            Log.d(TAG, "h2c prior-knowledge: " + enabled);
+        }
+    }
+
+    public synchronized boolean isH2cPriorKnowledge() {
+        return h2cPriorKnowledge;
+    }
+
+    /**
+     * 控制请求（注册、合并）的客户端
+     */
+    public OkHttpClient controlClient() {
+        return getClient().newBuilder()
+                .readTimeout(10, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 分片上传的客户端，与控制请求共享连接池
+     */
+    public OkHttpClient chunkClient() {
+        return getClient();
+    }
+
+    /**
+     * 关闭空闲连接（独立传输层用完后调用）
+     */
+    synchronized void evictAll() {
+        if (client != null) {
+            client.connectionPool().evictAll();
+        }
+    }
+
+    private synchronized OkHttpClient getClient() {
+        if (client == null) {
+            OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .connectTimeout(30, TimeUnit.SECONDS)
+                    .readTimeout(30, TimeUnit.SECONDS)
+                    .writeTimeout(30, TimeUnit.SECONDS)
+                    // 上传有自己的重试逻辑，避免 OkHttp 静默重发请求体
+                    .retryOnConnectionFailure(false);
+            if (h2cPriorKnowledge) {
+                builder.protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+            } else {
+                builder.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+            }
+            client = builder.build();
+        }
+        return client;
+    }
+}
@@ -11,6 +11,7 @@ import android.widget.Toast;
 import android.widget.VideoView;
 import androidx.appcompat.app.AppCompatActivity;
 import com.example.demoapp.R;
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -21,9 +22,12 @@ import java.util.Map;
  * 2. 断点续传
  * 3. 206 Partial Content 响应处理
  * 4. 根据视频比例自动选择横屏/竖屏
+ * 5. 小视频经 DownloadCache 缓存到本地后播放，重复观看不再下载
  */
 public class VideoPlayerActivity extends AppCompatActivity {
     private static final String TAG = "VideoPlayerActivity";
+    // 不超过该大小的视频先完整缓存再播放，更大的直接流式播放
+    private static final long CACHE_PLAY_LIMIT = 8 * 1024 * 1024;
     
     private VideoView videoView;
     private String videoUrl;
@@ -83,7 +87,39 @@ public class VideoPlayerActivity extends AppCompatActivity {
         headers.put("Accept", "video/*");
         headers.put("User-Agent", "Android-VideoPlayer");
         
-        videoView.setVideoURI(videoUri, headers);
+        // 查缓存可能要发条件请求，和其他下载一样经调度器执行，界面正在等待所以用 VISIBLE 优先级
+        DownloadScheduler.getInstance().submit("play:" + videoUrl, DownloadScheduler.Priority.VISIBLE,
+                progress -> DownloadCache.getInstance().fetchFile(videoUrl, CACHE_PLAY_LIMIT),
+                new DownloadScheduler.Listener<File>() {
+                    @Override
+                    public void onProgress(long downloaded, long total) {
+                    }
+
+                    @Override
+                    public void onSuccess(File file) {
+                        play(file);
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        Log.w(TAG, "读取缓存失败，直接播放: " + error);
+                        play(null);
+                    }
+
+                    private void play(File file) {
+                        runOnUiThread(() -> {
+                            if (isFinishing() || isDestroyed()) {
+                                return;
+                            }
+                            if (file != null) {
+                                Log.d(TAG, "从缓存播放: " + file);
+                                videoView.setVideoURI(Uri.fromFile(file));
+                            } else {
+                                videoView.setVideoURI(videoUri, headers);
+                            }
+                        });
+                    }
+                });
         
         // 设置监听器
         videoView.setOnPreparedListener(mp -> {
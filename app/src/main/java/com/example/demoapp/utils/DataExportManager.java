@@ -1,13 +1,32 @@
 package com.example.demoapp.utils;
 
+import android.Manifest;
+import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.media.MediaScannerConnection;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
 import android.util.Log;
+import android.webkit.MimeTypeMap;
 import android.widget.Toast;
+import com.example.demoapp.upload.FileDownloadManager;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.UUID;
 
 /**
  * 数据导出管理器
@@ -15,6 +34,7 @@ import java.io.IOException;
  */
 public class DataExportManager {
     private static final String TAG = "DataExportManager";
+    private static final String EXPORT_STAGING_DIR = "export_downloads";
     
     /**
      * 导出数据到服务器并唤起浏览器下载
@@ -69,7 +89,9 @@ public class DataExportManager {
     }
     
     /**
-     * 直接下载文件 URL
+     * 直接下载文件 URL 到系统的下载目录（用户在文件管理器的"下载"中可以看到）
+     * 先分段下载到应用缓存中的暂存文件（同一 URL 的暂存路径固定，失败后可续传，也能复用 DownloadCache），
+     * 完成后复制到下载目录；同名文件不覆盖，由系统（Android 10+）或 uniqueFile 自动加序号
      * 
      * @param context 上下文
      * @param fileUrl 文件 URL（已经存在的文件）
@@ -78,18 +100,162 @@ public class DataExportManager {
         Log.d(TAG, "========== 下载文件 ==========");
         Log.d(TAG, "文件 URL: " + fileUrl);
         
-        try {
-            Intent intent = new Intent(Intent.ACTION_VIEW);
-            intent.setData(Uri.parse(fileUrl));
-            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        Context appContext = context.getApplicationContext();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        // 不同 URL 的同名文件使用不同的暂存目录，互不覆盖
+        File stagingDir = new File(appContext.getCacheDir(), EXPORT_STAGING_DIR + "/"
+                + UUID.nameUUIDFromBytes(fileUrl.getBytes(StandardCharsets.UTF_8)));
+        File staging = new File(stagingDir, fileNameOf(fileUrl));
+        
+        Toast.makeText(context, "正在下载...", Toast.LENGTH_SHORT).show();
+        // 服务器支持 Range 且文件不小于 4MB 时分段并行下载，否则自动退回单连接
+        new FileDownloadManager().downloadSegmented(fileUrl, staging, new FileDownloadManager.FileCallback() {
+            @Override
+            public void onProgress(long downloaded, long total) {
+            }
             
-            context.startActivity(intent);
-            Toast.makeText(context, "正在下载...", Toast.LENGTH_SHORT).show();
-            Log.d(TAG, "✅ 成功唤起下载");
-        } catch (Exception e) {
-            Log.e(TAG, "❌ 下载失败", e);
-            Toast.makeText(context, "下载失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            @Override
+            public void onSuccess(File file, String contentType) {
+                // 在下载线程回调，复制不占用主线程
+                if (!file.exists()) {
+                    // 同一 URL 重复点击时下载任务被合并，前一个回调已经保存并删除了暂存文件
+                    return;
+                }
+                try {
+                    String savedName = saveToDownloads(appContext, file, contentType);
+                    Log.d(TAG, "✅ 下载完成: " + savedName);
+                    mainHandler.post(() -> Toast.makeText(appContext, "已保存到下载目录: " + savedName, Toast.LENGTH_LONG).show());
+                } catch (IOException e) {
+                    Log.e(TAG, "❌ 保存到下载目录失败", e);
+                    mainHandler.post(() -> Toast.makeText(appContext, "保存失败: " + e.getMessage(), Toast.LENGTH_SHORT).show());
+                } finally {
+                    file.delete();
+                    stagingDir.delete();
+                }
+            }
+            
+            @Override
+            public void onError(String error) {
+                Log.e(TAG, "❌ 下载失败: " + error);
+                mainHandler.post(() -> Toast.makeText(appContext, "下载失败: " + error, Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+    
+    /**
+     * 把下载好的文件复制到系统下载目录，返回实际保存的文件名
+     * Android 10+ 通过 MediaStore 写入（不需要存储权限，重名时系统自动加序号）；
+     * 更早的版本写入公共下载目录（需要存储权限）并通知媒体库扫描
+     */
+    private static String saveToDownloads(Context context, File file, String contentType) throws IOException {
+        String name = file.getName();
+        String mimeType = mimeTypeOf(name, contentType);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ContentResolver resolver = context.getContentResolver();
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
+            values.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
+            values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+            Uri uri = resolver.insert(MediaStore.Downloads.EXTERNAL_CONTENT_URI, values);
+            if (uri == null) {
+                throw new IOException("无法创建下载文件: " + name);
+            }
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = resolver.openOutputStream(uri)) {
+                if (out == null) {
+                    throw new IOException("无法写入下载文件: " + name);
+                }
+                copy(in, out);
+            } catch (IOException e) {
+                resolver.delete(uri, null, null);
+                throw e;
+            }
+            values.clear();
+            values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+            resolver.update(uri, values, null, null);
+            try (Cursor cursor = resolver.query(uri, new String[]{MediaStore.MediaColumns.DISPLAY_NAME},
+                    null, null, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    return cursor.getString(0);
+                }
+            }
+            return name;
+        }
+        
+        if (context.checkSelfPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE)
+                != PackageManager.PERMISSION_GRANTED) {
+            throw new IOException("没有存储权限，无法保存到下载目录");
+        }
+        File dir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        File target = uniqueFile(dir, name);
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = new FileOutputStream(target)) {
+            copy(in, out);
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+        MediaScannerConnection.scanFile(context, new String[]{target.getPath()}, new String[]{mimeType}, null);
+        return target.getName();
+    }
+    
+    /**
+     * 目录中已有同名文件时加序号：report.csv -> report (1).csv
+     */
+    private static File uniqueFile(File dir, String name) {
+        File file = new File(dir, name);
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = 1; file.exists(); i++) {
+            file = new File(dir, base + " (" + i + ")" + extension);
+        }
+        return file;
+    }
+    
+    /**
+     * 优先按扩展名判断类型（系统按类型决定文件名后缀），其次使用服务器返回的 Content-Type
+     */
+    private static String mimeTypeOf(String name, String contentType) {
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            String type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(
+                    name.substring(dot + 1).toLowerCase(Locale.ROOT));
+            if (type != null) {
+                return type;
+            }
+        }
+        if (contentType != null && !contentType.isEmpty()) {
+            int semicolon = contentType.indexOf(';');
+            return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim();
+        }
+        return "application/octet-stream";
+    }
+    
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+    }
+    
+    /**
+     * 从 URL 中取文件名（file 参数或最后一段路径）
+     */
+    private static String fileNameOf(String fileUrl) {
+        Uri uri = Uri.parse(fileUrl);
+        String name = uri.getQueryParameter("file");
+        if (name == null || name.isEmpty()) {
+            name = uri.getLastPathSegment();
+        }
+        if (name == null || name.isEmpty()) {
+            name = "download_" + System.currentTimeMillis();
         }
+        return new File(name).getName();
     }
     
     /**